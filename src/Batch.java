@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * @file  Batch.java
+ *
+ * @author   John Miller
+ */
+
+import java.util.function.*;
+
+/*******************************************************************************
+ * This class holds a batch of up to SIZE rows of a table column by column, for
+ * batch-at-a-time execution of the Table operators (selectBatch, projectBatch,
+ * joinBatch).  Integer, Short and Byte attributes are held in int arrays, Long
+ * attributes in long arrays and Double and Float attributes in double arrays, so
+ * operators on them run tight loops over primitives with no boxing; Character
+ * and String attributes are held as objects.  A selection vector lists the rows
+ * still qualifying: filters narrow it rather than moving any values.
+ */
+public class Batch
+{
+    /** The number of rows a batch holds.
+     */
+    public static final int SIZE = 1024;
+
+    /** The domains of the attributes.
+     */
+    private final Class [] domain;
+
+    /** The vector of each attribute: an int [], long [], double [] or Comparable [].
+     */
+    private final Object [] vec;
+
+    /** The selection vector: positions of the qualifying rows, in increasing order.
+     */
+    private final int [] sel = new int [SIZE];
+
+    /** The number of rows filled.
+     */
+    private int size = 0;
+
+    /** The number of qualifying rows (the first n entries of sel).
+     */
+    private int n = 0;
+
+    /***************************************************************************
+     * Construct an empty batch for rows of the given domains.
+     * @param _domain  the domains of the attributes
+     */
+    public Batch (Class [] _domain)
+    {
+        domain = _domain;
+        vec    = new Object [domain.length];
+        for (int j = 0; j < domain.length; j++) {
+            if      (isInt (domain [j]))         vec [j] = new int [SIZE];
+            else if (domain [j] == Long.class)   vec [j] = new long [SIZE];
+            else if (isDouble (domain [j]))      vec [j] = new double [SIZE];
+            else                                 vec [j] = new Comparable [SIZE];
+        } // for
+    } // constructor
+
+    /** Whether values of domain c are held in an int vector. */
+    static boolean isInt (Class c) { return c == Integer.class || c == Short.class || c == Byte.class; }
+
+    /** Whether values of domain c are held in a double vector. */
+    static boolean isDouble (Class c) { return c == Double.class || c == Float.class; }
+
+    /***************************************************************************
+     * Empty the batch so it can be refilled.
+     */
+    public void clear ()
+    {
+        size = n = 0;
+    } // clear
+
+    /***************************************************************************
+     * Return whether the batch has room for no more rows.
+     * @return  whether the batch is full
+     */
+    public boolean isFull ()
+    {
+        return size == SIZE;
+    } // isFull
+
+    /***************************************************************************
+     * Return the number of qualifying rows.
+     * @return  the number of selected rows
+     */
+    public int count ()
+    {
+        return n;
+    } // count
+
+    /***************************************************************************
+     * Return the number of rows filled (qualifying or not).
+     * @return  the number of rows
+     */
+    public int size ()
+    {
+        return size;
+    } // size
+
+    /***************************************************************************
+     * Return the position of the kth qualifying row.
+     * @param k  the rank among the qualifying rows (0 <= k < count ())
+     * @return  the row's position in the vectors
+     */
+    public int selected (int k)
+    {
+        return sel [k];
+    } // selected
+
+    /** Return the int vector of attribute j. */
+    public int [] ints (int j) { return (int []) vec [j]; }
+
+    /** Return the long vector of attribute j. */
+    public long [] longs (int j) { return (long []) vec [j]; }
+
+    /** Return the double vector of attribute j. */
+    public double [] doubles (int j) { return (double []) vec [j]; }
+
+    /** Return the object vector of attribute j. */
+    public Comparable [] objects (int j) { return (Comparable []) vec [j]; }
+
+    /***************************************************************************
+     * Return the value of attribute j in the row at position i as a long (the
+     * attribute must be held in an int or long vector).
+     * @param j  the attribute
+     * @param i  the row position
+     * @return  the value
+     */
+    long longAt (int j, int i)
+    {
+        return (vec [j] instanceof int []) ? ((int []) vec [j]) [i] : ((long []) vec [j]) [i];
+    } // longAt
+
+    /***************************************************************************
+     * Append a row, unboxing its values into the vectors.  The row is selected.
+     * @param t  the tuple to append
+     */
+    public void add (Comparable [] t)
+    {
+        for (int j = 0; j < vec.length; j++) {
+            Object v = vec [j];
+            if      (v instanceof int [])    ((int []) v) [size]    = ((Number) t [j]).intValue ();
+            else if (v instanceof long [])   ((long []) v) [size]   = ((Number) t [j]).longValue ();
+            else if (v instanceof double []) ((double []) v) [size] = ((Number) t [j]).doubleValue ();
+            else                             ((Comparable []) v) [size] = t [j];
+        } // for
+        added ();
+    } // add
+
+    /***************************************************************************
+     * Record that the vectors have been filled at position size (e.g., by
+     * TupleCodec.decode), selecting the new row.
+     */
+    void added ()
+    {
+        sel [n++] = size++;
+    } // added
+
+    /***************************************************************************
+     * Box the row at position i into a tuple holding the given attributes.
+     * @param i     the row position
+     * @param cols  the attributes to include, in order
+     * @return  the tuple
+     */
+    public Comparable [] row (int i, int [] cols)
+    {
+        Comparable [] t = new Comparable [cols.length];
+        for (int c = 0; c < cols.length; c++) {
+            int    j = cols [c];
+            Object v = vec [j];
+            if (v instanceof int []) {
+                int x = ((int []) v) [i];
+                t [c] = (domain [j] == Integer.class) ? (Comparable) x
+                      : (domain [j] == Short.class)   ? (Comparable) (short) x : (Comparable) (byte) x;
+            } else if (v instanceof long []) {
+                t [c] = ((long []) v) [i];
+            } else if (v instanceof double []) {
+                double x = ((double []) v) [i];
+                t [c] = (domain [j] == Double.class) ? (Comparable) x : (Comparable) (float) x;
+            } else {
+                t [c] = ((Comparable []) v) [i];
+            } // if
+        } // for
+        return t;
+    } // row
+
+    /***************************************************************************
+     * Keep only the selected rows whose int attribute j satisfies p.
+     * @param j  the attribute (held in an int vector)
+     * @param p  the condition on its values
+     */
+    public void selectInt (int j, IntPredicate p)
+    {
+        int [] v = ints (j);
+        int    m = 0;
+        for (int k = 0; k < n; k++) {
+            int i = sel [k];
+            if (p.test (v [i])) sel [m++] = i;
+        } // for
+        n = m;
+    } // selectInt
+
+    /***************************************************************************
+     * Keep only the selected rows whose long attribute j satisfies p.
+     * @param j  the attribute (held in a long vector)
+     * @param p  the condition on its values
+     */
+    public void selectLong (int j, LongPredicate p)
+    {
+        long [] v = longs (j);
+        int     m = 0;
+        for (int k = 0; k < n; k++) {
+            int i = sel [k];
+            if (p.test (v [i])) sel [m++] = i;
+        } // for
+        n = m;
+    } // selectLong
+
+    /***************************************************************************
+     * Keep only the selected rows whose double attribute j satisfies p.
+     * @param j  the attribute (held in a double vector)
+     * @param p  the condition on its values
+     */
+    public void selectDouble (int j, DoublePredicate p)
+    {
+        double [] v = doubles (j);
+        int       m = 0;
+        for (int k = 0; k < n; k++) {
+            int i = sel [k];
+            if (p.test (v [i])) sel [m++] = i;
+        } // for
+        n = m;
+    } // selectDouble
+
+    /***************************************************************************
+     * Keep only the selected rows whose object attribute j satisfies p.
+     * @param j  the attribute (held in an object vector)
+     * @param p  the condition on its values
+     */
+    public void selectObject (int j, Predicate <Comparable> p)
+    {
+        Comparable [] v = objects (j);
+        int           m = 0;
+        for (int k = 0; k < n; k++) {
+            int i = sel [k];
+            if (p.test (v [i])) sel [m++] = i;
+        } // for
+        n = m;
+    } // selectObject
+
+    /***************************************************************************
+     * Keep only the selected rows whose int attribute j lies in [lo, hi].  The
+     * comparison is inlined, with no call per row.
+     * @param j   the attribute (held in an int vector)
+     * @param lo  the low bound (inclusive)
+     * @param hi  the high bound (inclusive)
+     */
+    public void selectIntRange (int j, int lo, int hi)
+    {
+        int [] v = ints (j);
+        int    m = 0;
+        for (int k = 0; k < n; k++) {
+            int i = sel [k];
+            sel [m] = i;
+            m += (v [i] >= lo && v [i] <= hi) ? 1 : 0;                  // branch-free
+        } // for
+        n = m;
+    } // selectIntRange
+
+} // Batch class
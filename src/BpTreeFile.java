@@ -0,0 +1,749 @@
+/************************************************************************************
+ * @file BpTreeFile.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The BpTreeFile class provides disk-resident B+Tree maps from keys to row ids.
+ * Each node is a fixed-size page of an ".idx" file read through a buffer pool, so
+ * the size of the index is not bounded by the heap and opening it reads a single
+ * header page.  Page 0 is the header and page 1 is the first (leftmost) leaf.
+ * Other node pages are laid out as
+ *
+ *     [ isLeaf | nKeys | next | (child 0) | entry 0 | entry 1 | ... free space ]
+ *
+ * where a leaf entry is a packed key followed by its row id, and an internal entry
+ * is a packed key followed by the child to its right.  Keys are packed with a
+ * TupleCodec, preceded by their length.  Child i of an internal node holds the keys
+ * k with key[i-1] <= k < key[i].  Leaves are linked through next (-1 at the end).
+ * Nodes split when they no longer fit in a page.  Lookups binary search the packed
+ * keys of each page in place (see search), unpacking no keys.
+ */
+public class BpTreeFile
+       extends AbstractMap <KeyType, Integer>
+       implements Serializable, SortedMap <KeyType, Integer>
+{
+    /** File extension for index files.
+     */
+    private static final String EXT = ".idx";
+
+    /** Size of a node header (isLeaf, nKeys, next).
+     */
+    private static final int HEADER = 12;
+
+    /** The header page and the first leaf.
+     */
+    private static final int META = 0, FIRST_LEAF = 1;
+
+    /** The largest packed key allowed, so that every node holds at least four keys.
+     */
+    private static final int MAX_KEY = (BufferPool.PAGE_SIZE - HEADER - 4) / 4 - 6;
+
+    /** The base name of the index file.
+     */
+    private final String fileName;
+
+    /** The domains of the key attributes.
+     */
+    private final Class [] keyDomain;
+
+    /** The number of frames in the buffer pool.
+     */
+    private final int frames;
+
+    /** The page holding the root node.
+     */
+    transient private int root;
+
+    /** The number of pages in the index file.
+     */
+    transient private int nPages;
+
+    /** The counter for the total number of keys in the B+Tree.
+     */
+    transient private int keyCount;
+
+    /** The random access file that holds the pages.
+     */
+    transient private RandomAccessFile file;
+
+    /** The buffer pool caching the pages.
+     */
+    transient private BufferPool pool;
+
+    /** The codec used to pack the keys.
+     */
+    transient private TupleCodec codec;
+
+    /** Scratch buffer used to pack a node before it is copied to its page.
+     */
+    transient private ByteBuffer scratch;
+
+    /** Scratch buffer holding the packed key being looked up (see search).
+     */
+    transient private ByteBuffer keyBuf;
+
+    /** Scratch array of the positions of the entries in a page (see locate).
+     */
+    transient private int [] entryPos;
+
+    /********************************************************************************
+     * This inner class holds a node read from its page.  In a leaf, ref[i] is the row
+     * id for key[i]; in an internal node, ref holds the child pages (one more than
+     * the keys).
+     */
+    private static class Node
+    {
+        final int              pageNo;                             // page holding the node
+        boolean                isLeaf;                             // whether the node is a leaf
+        int                    next = -1;                          // next leaf (-1 if none)
+        final List <KeyType>   key  = new ArrayList <> ();         // keys
+        final List <Integer>   ref  = new ArrayList <> ();         // row ids or children
+
+        Node (int _pageNo, boolean _isLeaf) { pageNo = _pageNo; isLeaf = _isLeaf; }
+
+        /** Return the position of the first key >= k (nKeys if none). */
+        int lowerBound (KeyType k)
+        {
+            int lo = 0, hi = key.size ();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (key.get (mid).compareTo (k) < 0) lo = mid + 1; else hi = mid;
+            } // while
+            return lo;
+        } // lowerBound
+
+    } // Node inner class
+
+    /********************************************************************************
+     * Construct an empty B+Tree stored in fileName.idx (any existing contents of the
+     * file are discarded).
+     * @param _fileName   the base name of the file
+     * @param _keyDomain  the domains of the key attributes
+     * @param _frames     the number of pages to cache in memory
+     */
+    public BpTreeFile (String _fileName, Class [] _keyDomain, int _frames)
+    {
+        fileName  = _fileName;
+        keyDomain = _keyDomain;
+        frames    = _frames;
+        open (true);
+    } // constructor
+
+    /********************************************************************************
+     * Open the index file, either starting an empty tree or reading the header page
+     * of an existing one.
+     * @param create  whether to start an empty tree
+     */
+    private void open (boolean create)
+    {
+        codec   = new TupleCodec (keyDomain);
+        scratch  = ByteBuffer.allocate (2 * BufferPool.PAGE_SIZE);
+        keyBuf   = ByteBuffer.allocate (BufferPool.PAGE_SIZE);
+        entryPos = new int [BufferPool.PAGE_SIZE / 6];
+        try {
+            file = new RandomAccessFile (fileName + EXT, "rw");
+            if (create) file.setLength (0);
+            pool = new BufferPool (file.getChannel (), frames);
+        } catch (IOException ex) {
+            out.println ("BpTreeFile.open: unable to open - " + ex);
+            return;
+        } // try
+
+        if (create) {
+            root     = FIRST_LEAF;
+            nPages   = 2;
+            keyCount = 0;
+            write (new Node (FIRST_LEAF, true));
+            writeMeta ();
+        } else {
+            ByteBuffer meta = pool.page (META);
+            root     = meta.getInt (0);
+            nPages   = meta.getInt (4);
+            keyCount = meta.getInt (8);
+        } // if
+    } // open
+
+    /********************************************************************************
+     * Return null to use the natural order of the keys.
+     */
+    public Comparator <? super KeyType> comparator ()
+    {
+        return null;
+    } // comparator
+
+    /********************************************************************************
+     * Return a set containing all the entries as pairs of keys and row ids, in key
+     * order along the linked leaves.
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <KeyType, Integer>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <KeyType, Integer>> () {
+            public Iterator <Map.Entry <KeyType, Integer>> iterator ()
+            {
+                return new EntryIterator (null, false, null, false);
+            } // iterator
+            public int size () { return keyCount; }
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * Given the key, look up its row id by descending from the root.  The key is
+     * packed once and compared with the packed keys of each page in place.
+     * @param key  the key used for look up
+     * @return  the row id associated with the key, or null if there is none
+     */
+    public Integer get (Object key)
+    {
+        ByteBuffer p  = pool.page (leafFor ((KeyType) key));
+        int        nk = locate (p);
+        int        i  = search (p, nk, false);
+        if (i == nk || codec.compare (p, entryPos [i] + 2, keyBuf, 0) != 0) return null;
+        return p.getInt (refAfter (p, i));
+    } // get
+
+    /********************************************************************************
+     * Pack key k into keyBuf and descend from the root to the leaf that would hold it,
+     * searching the packed keys of each internal page in place.
+     * @param k  the key to look for
+     * @return  the page of the leaf
+     */
+    private int leafFor (KeyType k)
+    {
+        keyBuf.clear ();
+        codec.encode (k.getKey (), keyBuf);
+        int        pageNo = root;
+        ByteBuffer p      = pool.page (pageNo);
+        while (p.getInt (0) != 1) {
+            int i  = search (p, locate (p), true);                      // child i holds k
+            pageNo = p.getInt ((i == 0) ? HEADER : refAfter (p, i - 1));
+            p      = pool.page (pageNo);
+        } // while
+        return pageNo;
+    } // leafFor
+
+    /********************************************************************************
+     * Record in entryPos the position of each entry (its key length) in page p.
+     * @param p  the page holding a node
+     * @return  the number of keys in the node
+     */
+    private int locate (ByteBuffer p)
+    {
+        int nk  = p.getInt (4);
+        int pos = HEADER + ((p.getInt (0) == 1) ? 0 : 4);
+        for (int i = 0; i < nk; i++) {
+            entryPos [i] = pos;
+            pos += 2 + (p.getShort (pos) & 0xffff) + 4;
+        } // for
+        return nk;
+    } // locate
+
+    /********************************************************************************
+     * Binary search the packed keys of page p (located by locate) for the key packed
+     * in keyBuf.
+     * @param p      the page holding the node
+     * @param nk     the number of keys in the node
+     * @param upper  whether to find the first key greater than the search key
+     *               (rather than the first key greater than or equal to it)
+     * @return  the position of that key (nk if none)
+     */
+    private int search (ByteBuffer p, int nk, boolean upper)
+    {
+        int lo = 0, hi = nk;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int c   = codec.compare (p, entryPos [mid] + 2, keyBuf, 0);
+            if (c < 0 || (upper && c == 0)) lo = mid + 1; else hi = mid;
+        } // while
+        return lo;
+    } // search
+
+    /********************************************************************************
+     * Return the position in page p of the reference (row id or right child) that
+     * follows key i.
+     * @param p  the page holding the node (located by locate)
+     * @param i  the position of the key
+     * @return  the position of the reference
+     */
+    private int refAfter (ByteBuffer p, int i)
+    {
+        return entryPos [i] + 2 + (p.getShort (entryPos [i]) & 0xffff);
+    } // refAfter
+
+    /********************************************************************************
+     * Put the key and row id in the B+Tree, splitting nodes that overflow their pages.
+     * @param key  the key to insert
+     * @param rid  the row id to insert
+     * @return  the old row id associated with the key, or null if there was none
+     */
+    public Integer put (KeyType key, Integer rid)
+    {
+        if (codec.size (key.getKey ()) > MAX_KEY) {
+            throw new IllegalArgumentException ("BpTreeFile.put: key too long " + key);
+        } // if
+        Integer [] old   = new Integer [1];
+        Object []  split = insert (root, key, rid, old);
+        if (split != null) {
+            Node r = new Node (nPages++, false);
+            r.ref.add (root);
+            r.key.add ((KeyType) split [0]);
+            r.ref.add ((Integer) split [1]);
+            write (r);
+            root = r.pageNo;
+        } // if
+        if (old [0] == null) keyCount++;
+        writeMeta ();
+        return old [0];
+    } // put
+
+    /********************************************************************************
+     * Recursive helper for put: insert the key into the subtree at page pageNo.
+     * @param pageNo  the root of the subtree
+     * @param k       the key to insert
+     * @param rid     the row id to insert
+     * @param old     holder for the old row id
+     * @return  the divider key and page of the new right sibling if the node split,
+     *          else null
+     */
+    private Object [] insert (int pageNo, KeyType k, int rid, Integer [] old)
+    {
+        Node n = read (pageNo);
+        if (n.isLeaf) {
+            int i = n.lowerBound (k);
+            if (i < n.key.size () && n.key.get (i).equals (k)) {
+                old [0] = n.ref.get (i);
+                n.ref.set (i, rid);
+                write (n);
+                return null;
+            } // if
+            n.key.add (i, k);
+            n.ref.add (i, rid);
+        } else {
+            int       i     = n.lowerBound (k);
+            if (i < n.key.size () && n.key.get (i).equals (k)) i++;
+            Object [] split = insert (n.ref.get (i), k, rid, old);
+            if (split == null) return null;
+            n.key.add (i, (KeyType) split [0]);
+            n.ref.add (i + 1, (Integer) split [1]);
+        } // if
+
+        if (size (n) <= BufferPool.PAGE_SIZE) {
+            write (n);
+            return null;
+        } // if
+        return split (n);
+    } // insert
+
+    /********************************************************************************
+     * Split node n, which has overflowed its page, moving its upper half (by bytes)
+     * to a new page.
+     * @param n  the node to split
+     * @return  the divider key and page of the new right sibling
+     */
+    private Object [] split (Node n)
+    {
+        int half = size (n) / 2, used = HEADER, m = 0;
+        while (m < n.key.size () && used < half) used += entrySize (n.key.get (m++));
+        Node r = new Node (nPages++, n.isLeaf);
+        KeyType divider;
+        if (n.isLeaf) {
+            m = Math.max (1, Math.min (m, n.key.size () - 1));
+            r.key.addAll (n.key.subList (m, n.key.size ()));
+            r.ref.addAll (n.ref.subList (m, n.ref.size ()));
+            r.next  = n.next;
+            n.next  = r.pageNo;
+            divider = r.key.get (0);
+        } else {
+            m = Math.max (1, Math.min (m, n.key.size () - 2));
+            divider = n.key.get (m);
+            r.key.addAll (n.key.subList (m + 1, n.key.size ()));
+            r.ref.addAll (n.ref.subList (m + 1, n.ref.size ()));
+            n.ref.subList (m + 1, n.ref.size ()).clear ();
+        } // if
+        n.key.subList (m, n.key.size ()).clear ();
+        if (n.isLeaf) n.ref.subList (m, n.ref.size ()).clear ();
+        write (n);
+        write (r);
+        return new Object [] { divider, r.pageNo };
+    } // split
+
+    /********************************************************************************
+     * Determine whether the B+Tree holds the given key.
+     * @param key  the key to look for
+     * @return  whether the key is in the map
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Remove all the entries, truncating the index file.
+     */
+    public void clear ()
+    {
+        try {
+            file.close ();
+        } catch (IOException ex) {
+            out.println ("BpTreeFile.clear: unable to close - " + ex);
+        } // try
+        open (true);
+    } // clear
+
+    /********************************************************************************
+     * Return the size (number of entries) in the B+Tree.
+     * @return  the size of the B+Tree
+     */
+    public int size ()
+    {
+        return keyCount;
+    } // size
+
+    /********************************************************************************
+     * Return the first (smallest) key in the B+Tree.
+     * @return  the first key
+     */
+    public KeyType firstKey ()
+    {
+        if (keyCount == 0) throw new NoSuchElementException ("BpTreeFile.firstKey: empty map");
+        return new EntryIterator (null, false, null, false).next ().getKey ();
+    } // firstKey
+
+    /********************************************************************************
+     * Return the last (largest) key in the B+Tree by descending its rightmost path.
+     * @return  the last key
+     */
+    public KeyType lastKey ()
+    {
+        if (keyCount == 0) throw new NoSuchElementException ("BpTreeFile.lastKey: empty map");
+        Node n = read (root);
+        while (! n.isLeaf) n = read (n.ref.get (n.ref.size () - 1));
+        return n.key.get (n.key.size () - 1);
+    } // lastKey
+
+    /********************************************************************************
+     * Return the portion of the B+Tree where key < toKey, as a lazy view.
+     * @return  the submap with keys in the range [firstKey, toKey)
+     */
+    public SortedMap <KeyType, Integer> headMap (KeyType toKey)
+    {
+        return new Range (null, false, toKey, false);
+    } // headMap
+
+    /********************************************************************************
+     * Return the portion of the B+Tree where fromKey <= key, as a lazy view.
+     * @return  the submap with keys in the range [fromKey, lastKey]
+     */
+    public SortedMap <KeyType, Integer> tailMap (KeyType fromKey)
+    {
+        return new Range (fromKey, true, null, false);
+    } // tailMap
+
+    /********************************************************************************
+     * Return the portion of the B+Tree where fromKey <= key < toKey, as a lazy view.
+     * @return  the submap with keys in the range [fromKey, toKey)
+     */
+    public SortedMap <KeyType, Integer> subMap (KeyType fromKey, KeyType toKey)
+    {
+        return new Range (fromKey, true, toKey, false);
+    } // subMap
+
+    /********************************************************************************
+     * Return the portion of the B+Tree whose keys are between fromKey and toKey, where
+     * each bound may be inclusive or exclusive (a null bound leaves that side open).
+     * The submap is a lazy view: iterating it descends once to the leaf holding the
+     * low bound and then follows the leaf links.
+     * @param fromKey        the low bound of the range
+     * @param fromInclusive  whether the low bound is included
+     * @param toKey          the high bound of the range
+     * @param toInclusive    whether the high bound is included
+     * @return  the submap with keys in the range
+     */
+    public SortedMap <KeyType, Integer> subMap (KeyType fromKey, boolean fromInclusive,
+                                                KeyType toKey, boolean toInclusive)
+    {
+        return new Range (fromKey, fromInclusive, toKey, toInclusive);
+    } // subMap
+
+    /********************************************************************************
+     * This inner class provides a range view of the B+Tree.  A null bound means the
+     * range is unbounded on that side.
+     */
+    private class Range
+            extends AbstractMap <KeyType, Integer>
+            implements SortedMap <KeyType, Integer>
+    {
+        private final KeyType lo, hi;                                 // bounds of the range
+        private final boolean loInclusive, hiInclusive;               // whether the bounds are included
+
+        Range (KeyType _lo, boolean _loInclusive, KeyType _hi, boolean _hiInclusive)
+        {
+            lo = _lo; loInclusive = _loInclusive; hi = _hi; hiInclusive = _hiInclusive;
+        } // constructor
+
+        private boolean inRange (KeyType k)
+        {
+            if (lo != null) {
+                int c = k.compareTo (lo);
+                if (c < 0 || (c == 0 && ! loInclusive)) return false;
+            } // if
+            if (hi != null) {
+                int c = k.compareTo (hi);
+                if (c > 0 || (c == 0 && ! hiInclusive)) return false;
+            } // if
+            return true;
+        } // inRange
+
+        public Comparator <? super KeyType> comparator () { return null; }
+
+        public Set <Map.Entry <KeyType, Integer>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <KeyType, Integer>> () {
+                public Iterator <Map.Entry <KeyType, Integer>> iterator ()
+                {
+                    return new EntryIterator (lo, loInclusive, hi, hiInclusive);
+                } // iterator
+                public int size ()
+                {
+                    int n = 0;
+                    for (Iterator <Map.Entry <KeyType, Integer>> it = iterator (); it.hasNext (); it.next ()) n++;
+                    return n;
+                } // size
+            };
+        } // entrySet
+
+        public Integer get (Object key)
+        {
+            return inRange ((KeyType) key) ? BpTreeFile.this.get (key) : null;
+        } // get
+
+        public boolean containsKey (Object key) { return get (key) != null; }
+
+        public Integer put (KeyType key, Integer rid)
+        {
+            if (! inRange (key)) throw new IllegalArgumentException ("BpTreeFile.Range.put: key out of range");
+            return BpTreeFile.this.put (key, rid);
+        } // put
+
+        public KeyType firstKey ()
+        {
+            Iterator <Map.Entry <KeyType, Integer>> it = new EntryIterator (lo, loInclusive, hi, hiInclusive);
+            if (! it.hasNext ()) throw new NoSuchElementException ("BpTreeFile.Range.firstKey: empty range");
+            return it.next ().getKey ();
+        } // firstKey
+
+        public KeyType lastKey ()
+        {
+            KeyType last = null;
+            for (Iterator <Map.Entry <KeyType, Integer>> it = new EntryIterator (lo, loInclusive, hi, hiInclusive);
+                 it.hasNext (); ) last = it.next ().getKey ();
+            if (last == null) throw new NoSuchElementException ("BpTreeFile.Range.lastKey: empty range");
+            return last;
+        } // lastKey
+
+        public SortedMap <KeyType, Integer> headMap (KeyType toKey)
+        {
+            return (hi != null && hi.compareTo (toKey) < 0) ? this : new Range (lo, loInclusive, toKey, false);
+        } // headMap
+
+        public SortedMap <KeyType, Integer> tailMap (KeyType fromKey)
+        {
+            return (lo != null && lo.compareTo (fromKey) >= 0) ? this : new Range (fromKey, true, hi, hiInclusive);
+        } // tailMap
+
+        public SortedMap <KeyType, Integer> subMap (KeyType fromKey, KeyType toKey)
+        {
+            return ((Range) tailMap (fromKey)).headMap (toKey);
+        } // subMap
+
+    } // Range inner class
+
+    /********************************************************************************
+     * This inner class iterates over the entries of the B+Tree in key order, from a
+     * low bound to a high bound.  It reads one leaf at a time.
+     */
+    private class EntryIterator
+            implements Iterator <Map.Entry <KeyType, Integer>>
+    {
+        private Node          leaf;                                   // current leaf (null when done)
+        private int           pos;                                    // position of the next key in leaf
+        private final KeyType hi;                                     // high bound (null if none)
+        private final boolean hiInclusive;                            // whether the high bound is included
+
+        EntryIterator (KeyType lo, boolean loInclusive, KeyType _hi, boolean _hiInclusive)
+        {
+            hi = _hi; hiInclusive = _hiInclusive;
+            if (lo == null) {
+                leaf = read (FIRST_LEAF); pos = 0;
+            } else {
+                Node n = read (leafFor (lo));
+                leaf = n; pos = n.lowerBound (lo);
+                if (! loInclusive && pos < n.key.size () && lo.equals (n.key.get (pos))) pos++;
+            } // if
+            skipExhausted ();
+        } // constructor
+
+        /** Move past exhausted leaves, and stop at the high bound. */
+        private void skipExhausted ()
+        {
+            while (leaf != null && pos >= leaf.key.size ()) {
+                leaf = (leaf.next < 0) ? null : read (leaf.next);
+                pos  = 0;
+            } // while
+            if (leaf != null && hi != null) {
+                int c = leaf.key.get (pos).compareTo (hi);
+                if (c > 0 || (c == 0 && ! hiInclusive)) leaf = null;
+            } // if
+        } // skipExhausted
+
+        public boolean hasNext () { return leaf != null; }
+
+        public Map.Entry <KeyType, Integer> next ()
+        {
+            if (leaf == null) throw new NoSuchElementException ();
+            Map.Entry <KeyType, Integer> e = new AbstractMap.SimpleImmutableEntry <> (leaf.key.get (pos), leaf.ref.get (pos));
+            pos++;
+            skipExhausted ();
+            return e;
+        } // next
+
+    } // EntryIterator inner class
+
+    /********************************************************************************
+     * Read the node held in the given page.
+     * @param pageNo  the page to read
+     * @return  the node
+     */
+    private Node read (int pageNo)
+    {
+        ByteBuffer p   = pool.page (pageNo);
+        Node       n   = new Node (pageNo, p.getInt (0) == 1);
+        int        nk  = p.getInt (4);
+        int        pos = HEADER;
+        n.next = p.getInt (8);
+        if (! n.isLeaf) { n.ref.add (p.getInt (pos)); pos += 4; }
+        for (int i = 0; i < nk; i++) {
+            int len = p.getShort (pos) & 0xffff;
+            n.key.add (new KeyType (codec.decode (p, pos + 2)));
+            pos += 2 + len;
+            n.ref.add (p.getInt (pos));
+            pos += 4;
+        } // for
+        return n;
+    } // read
+
+    /********************************************************************************
+     * Write node n to its page.
+     * @param n  the node to write
+     */
+    private void write (Node n)
+    {
+        scratch.clear ();
+        scratch.putInt (n.isLeaf ? 1 : 0);
+        scratch.putInt (n.key.size ());
+        scratch.putInt (n.next);
+        if (! n.isLeaf) scratch.putInt (n.ref.get (0));
+        for (int i = 0; i < n.key.size (); i++) {
+            int at = scratch.position ();
+            scratch.putShort ((short) 0);
+            scratch.putShort (at, (short) codec.encode (n.key.get (i).getKey (), scratch));
+            scratch.putInt (n.ref.get (n.isLeaf ? i : i + 1));
+        } // for
+        scratch.flip ();
+        ByteBuffer page = pool.page (n.pageNo).duplicate ();
+        page.clear ();
+        page.put (scratch);
+        pool.markDirty (n.pageNo);
+    } // write
+
+    /********************************************************************************
+     * Write the root, page count and key count to the header page.
+     */
+    private void writeMeta ()
+    {
+        ByteBuffer meta = pool.page (META);
+        meta.putInt (0, root);
+        meta.putInt (4, nPages);
+        meta.putInt (8, keyCount);
+        pool.markDirty (META);
+    } // writeMeta
+
+    /********************************************************************************
+     * Compute the number of bytes node n takes in its page.
+     * @param n  the node to size
+     * @return  the packed size of the node
+     */
+    private int size (Node n)
+    {
+        int size = HEADER + (n.isLeaf ? 0 : 4);
+        for (KeyType k : n.key) size += entrySize (k);
+        return size;
+    } // size
+
+    /********************************************************************************
+     * Compute the number of bytes an entry with key k takes in a page.
+     * @param k  the key of the entry
+     * @return  the packed size of the entry
+     */
+    private int entrySize (KeyType k)
+    {
+        return 2 + codec.size (k.getKey ()) + 4;
+    } // entrySize
+
+    /********************************************************************************
+     * Write the modified pages back to the index file.
+     */
+    public void flush ()
+    {
+        pool.flush ();
+    } // flush
+
+    /********************************************************************************
+     * Write the modified pages back before this map is serialized (e.g., by
+     * Table.save); only the file name is written to the stream.
+     * @param oos  the stream to write the map to
+     */
+    private void writeObject (ObjectOutputStream oos) throws IOException
+    {
+        flush ();
+        oos.defaultWriteObject ();
+    } // writeObject
+
+    /********************************************************************************
+     * Reopen the index file after this map has been deserialized.
+     * @param ois  the stream to read the map from
+     */
+    private void readObject (ObjectInputStream ois)
+            throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        open (false);
+    } // readObject
+
+    /********************************************************************************
+     * The main method used for testing.
+     * @param args  the command-line arguments (args[0] gives number of keys to insert)
+     */
+    public static void main (String [] args)
+    {
+        int totalKeys = (args.length == 1) ? Integer.valueOf (args [0]) : 100000;
+
+        BpTreeFile bpt = new BpTreeFile ("BpTreeFileTest", new Class [] { Integer.class }, 64);
+        Random     rng = new Random ();
+        for (int i = 0; i < totalKeys; i++) bpt.put (new KeyType (rng.nextInt (2 * totalKeys)), i);
+        bpt.flush ();
+
+        out.println ("keys = " + bpt.size () + ", pages = " + bpt.nPages
+                   + ", first = " + bpt.firstKey () + ", last = " + bpt.lastKey ()
+                   + ", hit ratio = " + bpt.pool.hitRatio ());
+    } // main
+
+} // BpTreeFile class
@@ -7,6 +7,9 @@
 import java.io.*;
 import java.lang.reflect.Array;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static java.lang.Math.ceil;
 import static java.lang.System.out;
@@ -18,6 +21,14 @@ import static java.lang.System.out;
  * Internal nodes will contain divider keys such that each divider key corresponds to
  * the largest key in its left subtree (largest left).  Keys in left subtree are "<=",
  * while keys in right subtree are ">".
+ *
+ * The map is safe for concurrent readers and writers.  Each node has a read-write
+ * latch and operations descend by latch crabbing: a child is latched before its
+ * parent is released.  An insertion first descends with read latches and write
+ * latches only the leaf; if the leaf might split, it retries from the root holding
+ * write latches on the path below the deepest node that cannot split.  Iterators
+ * are weakly consistent: they read a leaf at a time under its latch and never
+ * return a key twice.
  */
 public class BpTreeMap <K extends Comparable <K>, V>
        extends AbstractMap <K, V>
@@ -25,20 +36,16 @@ public class BpTreeMap <K extends Comparable <K>, V>
 {
     /** The debug flag
      */
-    private static final boolean DEBUG = true;
-
-    /** The maximum fanout (number of children) for a B+Tree node.
-     *  May wish to increase for better performance for Program 3.
-     */
-    private static final int ORDER = 5;
+    private static final boolean DEBUG = false;
 
-    /** The maximum fanout (number of children) for a big B+Tree node.
+    /** The default maximum fanout (number of children) for a B+Tree node.
+     *  A high fanout keeps the tree shallow, so lookups visit few nodes.
      */
-    private static final int BORDER = ORDER + 1;
+    public static final int ORDER = 128;
 
-    /** The ceiling of half the ORDER.
+    /** The maximum fanout (number of children) for a B+Tree node of this map.
      */
-    private static final int MID = (int) ceil (ORDER / 2.0);
+    private final int order;
 
     /** The class for type K.
      */
@@ -47,19 +54,26 @@ public class BpTreeMap <K extends Comparable <K>, V>
     /** The class for type V.
      */
     private final Class <V> classV;
-    
-    private K tempKey; 
-    //used to get keys for splitting and wedging. 
+
+    /** The domain of the single attribute of a KeyType key (null if there is none),
+     *  which picks the layout of the node keys (see KeyArray.of).
+     */
+    private final Class <?> keyDomain;
 
     /********************************************************************************
      * This inner class defines nodes that are stored in the B+tree map.
+     * A node has room for one key (and ref) more than its maximum, so that an
+     * insertion may overflow it momentarily before it is split.  In a leaf, ref[i]
+     * holds the value for key[i] and ref[nKeys] links to the next leaf.
      */
     private class Node
+            implements Serializable
     {
         boolean   isLeaf;                             // whether the node is a leaf 
         int       nKeys;                              // number of active keys
-        K []      key;                                // array of keys
+        KeyArray <K> key;                             // array of keys (layout suits K)
         Object [] ref;                                // array of references/pointers
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock ();
          
 
         /****************************************************************************
@@ -67,44 +81,34 @@ public class BpTreeMap <K extends Comparable <K>, V>
          * @param p       the order of the node (max refs)
          * @param isLeaf  whether the node is a leaf
          */
-        @SuppressWarnings("unchecked")
         Node (int p, boolean _isLeaf)
         {
             isLeaf = _isLeaf;
             nKeys  = 0;
-            key    = (K []) Array.newInstance (classK, p-1);
-            if (isLeaf) {
-                ref = new Object [p];
-            } else {
-                ref = (Node []) Array.newInstance (Node.class, p);
-            } // if
-            
-            tempKey = null; 
+            key    = KeyArray.of (classK, keyDomain, p);
+            ref    = new Object [p + 1];
         } // constructor
 
         /****************************************************************************
-         * Copy keys and ref from node n to this node.
-         * @param n     the node to copy from
-         * @param from  where in n to start copying from
-         * @param num   the number of keys/refs to copy
-         */
-        void copy (Node n, int from, int num)
-        {
-            nKeys = num;
-            for (int i = 0; i < num; i++) { key[i] = n.key[from+i]; ref[i] = n.ref[from+i]; }
-            ref[num] = n.ref[from+num];
-        } // copy
-
-        /****************************************************************************
-         * Find the "<=" match position in this node.
+         * Find the "<=" match position in this node (by binary search).
          * @param k  the key to be matched.
          * @return  the position of match within node, where nKeys indicates no match
          */
         int find (K k)
         {
-            for (int i  = 0; i < nKeys; i++) if (k.compareTo (key[i]) <= 0) return i;
-            return nKeys;
+            return key.search (k, nKeys);
         } // find
+
+        /****************************************************************************
+         * Return the child node (or, in a leaf, the next leaf) referenced at i.
+         * @param i  the position of the reference
+         * @return  the node referenced
+         */
+        @SuppressWarnings("unchecked")
+        Node child (int i)
+        {
+            return (Node) ref[i];
+        } // child
         
         /****************************************************************************
          * Overriding toString method to print the Node. Prints out the keys.
@@ -112,7 +116,9 @@ public class BpTreeMap <K extends Comparable <K>, V>
         @Override
         public String toString () 
         {
-            return Arrays.deepToString (key);
+            StringBuilder sb = new StringBuilder ("[");
+            for (int i = 0; i < nKeys; i++) sb.append (i == 0 ? "" : ", ").append (key.get (i));
+            return sb.append ("]").toString ();
         } // toString
 
     } // Node inner class
@@ -121,38 +127,77 @@ public class BpTreeMap <K extends Comparable <K>, V>
      */
     private Node root;
 
-    /** The first (leftmost) leaf in the B+Tree
+    /** The latch guarding the root and firstLeaf references
      */
-    private final Node firstLeaf;
+    private final ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock ();
 
-    /** A big node to hold all keys and references/pointers before splitting
+    /** The first (leftmost) leaf in the B+Tree
      */
-    private final Node bn;
-     
-    /** Flag indicating whether a split at the level below has occurred that needs to be handled
+    private Node firstLeaf;
+
+    /** The unbounded range view backing entrySet, keySet and values
      */
-    private boolean hasSplit = false;
+    private transient SubMap all;
 
     /** The counter for the number nodes accessed (for performance testing)
      */
-    private int count = 0;
+    private final LongAdder count = new LongAdder ();
 
     /** The counter for the total number of keys in the B+Tree Map
      */
-    private int keyCount = 0;
+    private final AtomicInteger keyCount = new AtomicInteger ();
 
     /********************************************************************************
-     * Construct an empty B+Tree map.
+     * Construct an empty B+Tree map with the default order.
      * @param _classK  the class for keys (K)
      * @param _classV  the class for values (V)
      */
     public BpTreeMap (Class <K> _classK, Class <V> _classV)
     {
+        this (_classK, _classV, ORDER);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty B+Tree map.
+     * @param _classK  the class for keys (K)
+     * @param _classV  the class for values (V)
+     * @param _order   the maximum fanout (number of children) of a node (at least 3)
+     */
+    public BpTreeMap (Class <K> _classK, Class <V> _classV, int _order)
+    {
+        this (_classK, _classV, _order, null);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty B+Tree map with the default order whose KeyType keys are
+     * made up of a single attribute of the given domain, so that the nodes keep the
+     * keys in the layout for that domain (e.g., an int array for Integer).
+     * @param _classK     the class for keys (K)
+     * @param _classV     the class for values (V)
+     * @param _keyDomain  the domain of the key attribute
+     */
+    public BpTreeMap (Class <K> _classK, Class <V> _classV, Class <?> _keyDomain)
+    {
+        this (_classK, _classV, ORDER, _keyDomain);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty B+Tree map.
+     * @param _classK     the class for keys (K)
+     * @param _classV     the class for values (V)
+     * @param _order      the maximum fanout (number of children) of a node (at least 3)
+     * @param _keyDomain  the domain of the single attribute of a KeyType key (null if
+     *                    K is not KeyType or the keys have several attributes)
+     */
+    public BpTreeMap (Class <K> _classK, Class <V> _classV, int _order, Class <?> _keyDomain)
+    {
+        if (_order < 3) throw new IllegalArgumentException ("BpTreeMap: order must be at least 3");
         classK    = _classK;
         classV    = _classV;
-        root      = new Node (ORDER, true);
+        keyDomain = _keyDomain;
+        order     = _order;
+        root      = new Node (order, true);
         firstLeaf = root;
-        bn        = new Node (BORDER, true);
     } // constructor
 
     /********************************************************************************
@@ -165,53 +210,45 @@ public class BpTreeMap <K extends Comparable <K>, V>
     } // comparator
 
     /********************************************************************************
-     * Return a set containing all the entries as pairs of keys and values.
+     * Return a set containing all the entries as pairs of keys and values.  The set
+     * is a view that streams the entries in key order along the linked leaves; it is
+     * created once and nothing is copied.
      * @return  the set view of the map
      */
     public Set <Map.Entry <K, V>> entrySet ()
     {
-    	Set <Map.Entry <K, V>> enSet = new HashSet <> ();
-    	    	
-    	Node temp = firstLeaf;
-    	boolean again = true;
-    	
-    	while(again){
-    		for(int i = 0; i < temp.nKeys; i++){
-    			Map.Entry<K, V> e = new AbstractMap.SimpleEntry(temp.key[i], (V)temp.ref[i]);
-    			enSet.add(e);
-    		}
-    		if(again){
-    			temp = (Node)temp.ref[temp.nKeys];
-    		}
-    		if(temp == null){
-    			again = false;
-    		}
-    	}
-    	/*
-    	K[] keys = (K []) Array.newInstance (classK, numKeys+leafKeys);
-    	Object[] ref = new Object[15];
-    	//Map.Entry<K,V> e = (Map.Entry<K, V>)new AbstractMap.SimpleEntry;//new Map.Entry<K,V>(0, null);
-    	//Map.Entry<K,V> e = (java.util.Map.Entry<K, V>) new AbstractMap.SimpleEntry<Integer, Integer>(numKeys+leafKeys,null);
-        
-    	HashMap hash = new HashMap();
-    	Node tempNode = new Node (keyCount, true);
-    	
-    	//test root
-    	for(int i = 0; i < numKeys; i++){
-        	keys[i] = (K)root.key[i];
-        	ref[i] = find((K) root.key[i], root);
-        	//System.out.println("KEY: " + keys[i]);
-        	//System.out.println("VALUE: " + ref[i]);
-        	
-        	hash.put(keys[i], ref[i]);
-        	//e.setValue((V)ref[i]);
-            //enSet.add(e);
-        }
-    	enSet = hash.entrySet();       */  
-        return enSet;
-
+        return all ().entrySet ();
     } // entrySet
 
+    /********************************************************************************
+     * Return a set view of the keys, streamed in key order along the linked leaves.
+     * @return  the key set view of the map
+     */
+    public Set <K> keySet ()
+    {
+        return all ().keySet ();
+    } // keySet
+
+    /********************************************************************************
+     * Return a collection view of the values, streamed in key order along the
+     * linked leaves.
+     * @return  the values view of the map
+     */
+    public Collection <V> values ()
+    {
+        return all ().values ();
+    } // values
+
+    /********************************************************************************
+     * Return the (cached) unbounded range view that backs the map's own views.
+     * @return  the view of the whole map
+     */
+    private SubMap all ()
+    {
+        if (all == null) all = new SubMap (null, false, null, false);
+        return all;
+    } // all
+
     /********************************************************************************
      * Given the key, look up the value in the B+Tree map.
      * @param key  the key used for look up
@@ -220,139 +257,519 @@ public class BpTreeMap <K extends Comparable <K>, V>
     @SuppressWarnings("unchecked")
     public V get (Object key)
     {
-        return find ((K) key, root);
+        K    k = (K) key;
+        Node n = readLeaf (k);
+        try {
+            int i = n.find (k);
+            return (i < n.nKeys && n.key.compare (k, i) == 0) ? (V) n.ref[i] : null;
+        } finally {
+            n.latch.readLock ().unlock ();
+        } // try
     } // get
 
     /********************************************************************************
-     * Put the key-value pair in the B+Tree map.
+     * Put the key-value pair in the B+Tree map.  The leaf is reached with read
+     * latches and updated under its write latch, unless it is full, in which case
+     * the insertion is redone holding write latches on the nodes that may split.
      * @param key    the key to insert
      * @param value  the value to insert
-     * @return  null, not the previous value for this key
+     * @return  the previous value for this key, or null if there was none
      */
+    @SuppressWarnings("unchecked")
     public V put (K key, V value)
     {
-        insert (key, value, root);
-        return null;
+        rootLatch.readLock ().lock ();
+        Node n = root;
+        latch (n, n.isLeaf);
+        rootLatch.readLock ().unlock ();
+        while (! n.isLeaf) {
+            Node child = n.child (n.find (key));
+            latch (child, child.isLeaf);
+            n.latch.readLock ().unlock ();
+            n = child;
+        } // while
+
+        try {
+            int i = n.find (key);
+            if (i < n.nKeys && n.key.compare (key, i) == 0) {
+                V old    = (V) n.ref[i];                                // replace the value
+                n.ref[i] = value;
+                return old;
+            } // if
+            if (safe (n)) {
+                wedge (key, value, n, i, true);
+                keyCount.incrementAndGet ();
+                return null;
+            } // if
+        } finally {
+            n.latch.writeLock ().unlock ();
+        } // try
+        return putSplitting (key, value);
     } // put
 
+    /********************************************************************************
+     * Put the key-value pair in the B+Tree map when nodes may split.  Write latches
+     * are taken from the root down; whenever a node that cannot split is reached,
+     * the latches above it are released.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the previous value for this key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    private V putSplitting (K key, V value)
+    {
+        Object []    old      = new Object [1];
+        Deque <Node> held     = new ArrayDeque <> ();                  // latched path, deepest first
+        boolean      rootHeld = true;
+        rootLatch.writeLock ().lock ();
+        try {
+            Node n = root;
+            n.latch.writeLock ().lock ();
+            held.push (n);
+            while (! n.isLeaf) {
+                Node child = n.child (n.find (key));
+                child.latch.writeLock ().lock ();
+                if (safe (child)) {                                     // nothing above child can change
+                    while (! held.isEmpty ()) held.pop ().latch.writeLock ().unlock ();
+                    if (rootHeld) { rootLatch.writeLock ().unlock (); rootHeld = false; }
+                } // if
+                held.push (child);
+                n = child;
+            } // while
+
+            Node rt = insert (key, value, held.peekLast (), old);
+            if (rt != null) root = makeRoot (root, divider (root), rt);  // root was split
+            if (DEBUG) print (root, 0);
+        } finally {
+            while (! held.isEmpty ()) held.pop ().latch.writeLock ().unlock ();
+            if (rootHeld) rootLatch.writeLock ().unlock ();
+        } // try
+        return (V) old [0];
+    } // putSplitting
+
+    /********************************************************************************
+     * Determine whether the B+Tree map contains the given key.
+     * @param key  the key to look for
+     * @return  whether the key is present
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Remove all the keys from the B+Tree map.
+     */
+    public void clear ()
+    {
+        rootLatch.writeLock ().lock ();
+        try {
+            root      = new Node (order, true);
+            firstLeaf = root;
+            keyCount.set (0);
+        } finally {
+            rootLatch.writeLock ().unlock ();
+        } // try
+    } // clear
+
+    /********************************************************************************
+     * Replace the contents of the B+Tree map by bulk loading the given entries, which
+     * must be in strictly increasing key order.  Rather than inserting one key at a
+     * time from the root, leaves are packed left to right to the given fill factor
+     * and each internal level is built from the one below in a single pass.  The new
+     * tree is built aside and then replaces the old one at once.
+     * @param entries  the (key, value) pairs in increasing key order
+     * @param fill     the fraction of each node to fill (0 < fill <= 1)
+     */
+    @SuppressWarnings("unchecked")
+    public void bulkLoad (Iterable <? extends Map.Entry <K, V>> entries, double fill)
+    {
+        if (fill <= 0.0 || fill > 1.0) throw new IllegalArgumentException ("BpTreeMap.bulkLoad: bad fill " + fill);
+        int leafCap = Math.max (1, (int) Math.round ((order - 1) * fill));      // keys per leaf
+        int nodeCap = Math.max (2, (int) Math.round (order * fill));            // refs per internal node
+
+        List <Node> level = new ArrayList <> ();                                // nodes of the level being built
+        List <K>    max   = new ArrayList <> ();                                // largest key under each node
+        Node first = new Node (order, true);
+        Node leaf  = first;
+        K    prev  = null;
+        int  keys  = 0;
+        for (Map.Entry <K, V> e : entries) {
+            K k = e.getKey ();
+            if (prev != null && prev.compareTo (k) >= 0) {
+                throw new IllegalArgumentException ("BpTreeMap.bulkLoad: keys out of order at " + k);
+            } // if
+            if (leaf.nKeys == leafCap) {                                        // start the next leaf
+                Node next = new Node (order, true);
+                leaf.ref[leaf.nKeys] = next;
+                level.add (leaf); max.add (prev);
+                leaf = next;
+            } // if
+            leaf.key.set (leaf.nKeys, k);
+            leaf.ref[leaf.nKeys] = e.getValue ();
+            leaf.nKeys++;
+            keys++;
+            prev = k;
+        } // for
+        level.add (leaf); max.add (prev);
+
+        while (level.size () > 1) {                                             // build the level above
+            int groups = (level.size () + nodeCap - 1) / nodeCap;
+            List <Node> upper    = new ArrayList <> (groups);
+            List <K>    upperMax = new ArrayList <> (groups);
+            for (int g = 0, c = 0; g < groups; g++) {
+                int  size = level.size () / groups + (g < level.size () % groups ? 1 : 0);  // spread evenly
+                Node n    = new Node (order, false);
+                for (int j = 0; j < size; j++, c++) {
+                    n.ref[j] = level.get (c);
+                    if (j < size - 1) n.key.set (j, max.get (c));                   // divider: largest left
+                } // for
+                n.nKeys = size - 1;
+                upper.add (n); upperMax.add (max.get (c - 1));
+            } // for
+            level = upper; max = upperMax;
+        } // while
+
+        rootLatch.writeLock ().lock ();
+        try {
+            root      = level.get (0);
+            firstLeaf = first;
+            keyCount.set (keys);
+        } finally {
+            rootLatch.writeLock ().unlock ();
+        } // try
+    } // bulkLoad
+
     /********************************************************************************
      * Return the first (smallest) key in the B+Tree map.
      * @return  the first key in the B+Tree map.
      */
     public K firstKey () 
     {
-        return firstLeaf.key[0];
+        Node n = readLeaf (null);
+        try {
+            if (n.nKeys == 0) throw new NoSuchElementException ("BpTreeMap.firstKey: empty map");
+            return n.key.get (0);
+        } finally {
+            n.latch.readLock ().unlock ();
+        } // try
     } // firstKey
 
     /********************************************************************************
      * @author Fu
-     * Return the last (largest) key in the B+Tree map.
+     * Return the last (largest) key in the B+Tree map by descending the rightmost path.
      * @return  the last key in the B+Tree map.
      */
     public K lastKey () 
     {
-    	K tempKey = (K)(Integer) keyCount;
-    	Object temp = find(tempKey,root);
-    	
-    	return tempKey;
+        rootLatch.readLock ().lock ();
+        Node n = root;
+        n.latch.readLock ().lock ();
+        rootLatch.readLock ().unlock ();
+        while (! n.isLeaf) {                                                // follow the rightmost refs
+            Node child = n.child (n.nKeys);
+            child.latch.readLock ().lock ();
+            n.latch.readLock ().unlock ();
+            n = child;
+        } // while
+        try {
+            if (n.nKeys == 0) throw new NoSuchElementException ("BpTreeMap.lastKey: empty map");
+            return n.key.get (n.nKeys - 1);
+        } finally {
+            n.latch.readLock ().unlock ();
+        } // try
     } // lastKey
 
     /********************************************************************************
-     * Return the portion of the B+Tree map where key < toKey.
+     * Return the portion of the B+Tree map where key < toKey.  The submap is a lazy
+     * view backed by this map (see SubMap).
      * @return  the submap with keys in the range [firstKey, toKey)
      * @author Tan
      */
     public SortedMap <K,V> headMap (K toKey)
     {
-    	SortedMap hmap = new BpTreeMap(Comparable.class, Comparable.class);
-    	
-    	Node a = this.firstLeaf;
-    	boolean reloop = true;
-    	
-    	while(reloop == true){
-    		for(int i = 0; i < a.nKeys; i++){
-    			if(a.key[i].compareTo(toKey) >= 0){
-    				reloop = false;
-    			}
-    			if(reloop){
-    				hmap.put(a.key[i], (V)a.ref[i]);
-    			}
-    		}
-    		if(reloop){
-    			a = (Node)a.ref[a.nKeys];
-    		}
-    		if(a == null){
-    			reloop = false;
-    		}
-    	}
-        return hmap;
+        return new SubMap (null, false, toKey, false);
     } // headMap
 
     /********************************************************************************
-     * Return the portion of the B+Tree map where fromKey <= key.
+     * Return the portion of the B+Tree map where fromKey <= key.  The submap is a
+     * lazy view backed by this map (see SubMap).
      * @return  the submap with keys in the range [fromKey, lastKey]
      * @author Tan
      */
     public SortedMap <K,V> tailMap (K fromKey)
     {
-    	SortedMap tmap = new BpTreeMap(Comparable.class, Comparable.class);
-    	
-    	Node b = this.firstLeaf;
-    	boolean reloop = true;
-    	
-    	while(reloop == true){
-    		for(int i = 0; i < b.nKeys; i++){
-    			if(b.key[i].compareTo(fromKey) >= 0){
-    				tmap.put(b.key[i], (V)b.ref[i]);
-    			}
-    		}
-    		if(reloop){
-    			b = (Node)b.ref[b.nKeys];
-    		}
-    		if(b == null){
-    			reloop = false;
-    		}
-    	}
-        return tmap;
-
+        return new SubMap (fromKey, true, null, false);
     } // tailMap
 
     /********************************************************************************
      * Return the portion of the B+Tree map whose keys are between fromKey and toKey,
-     * i.e., fromKey <= key < toKey.
+     * i.e., fromKey <= key < toKey.  The submap is a lazy view backed by this map
+     * (see SubMap).
      * @return  the submap with keys in the range [fromKey, toKey)
      * @author Tan
      */
     public SortedMap <K,V> subMap (K fromKey, K toKey)
     {
-    	SortedMap smap = new BpTreeMap(Comparable.class, Comparable.class);
-    	
-    	Node c = this.firstLeaf;
-    	boolean reloop = true;
-    	
-    	while(reloop == true){
-    		for(int i = 0; i < c.nKeys; i++){
-    			if(c.key[i].compareTo(fromKey) >= 0 && c.key[i].compareTo(toKey) <= 0 ){
-    				smap.put(c.key[i], (V)c.ref[i]);    			}
-    			
-    		}
-    		if(reloop){
-    			c = (Node)c.ref[c.nKeys];
-    		}
-    		if(c == null){
-    			reloop = false;
-    		}
-    	}
-        return smap;
+        return new SubMap (fromKey, true, toKey, false);
+    } // subMap
+
+    /********************************************************************************
+     * Return the portion of the B+Tree map whose keys are between fromKey and toKey,
+     * where each bound may be inclusive or exclusive.  The submap is a lazy view
+     * backed by this map (see SubMap).
+     * @param fromKey        the low bound of the range
+     * @param fromInclusive  whether the low bound is included
+     * @param toKey          the high bound of the range
+     * @param toInclusive    whether the high bound is included
+     * @return  the submap with keys in the range
+     */
+    public SortedMap <K,V> subMap (K fromKey, boolean fromInclusive, K toKey, boolean toInclusive)
+    {
+        return new SubMap (fromKey, fromInclusive, toKey, toInclusive);
     } // subMap
 
+    /********************************************************************************
+     * This inner class provides a range view of the B+Tree map.  Nothing is copied:
+     * iterating the view descends once to the leaf holding the low bound and then
+     * walks the linked leaves, stopping at the high bound.  A null bound means the
+     * range is unbounded on that side.
+     */
+    private class SubMap
+            extends AbstractMap <K, V>
+            implements SortedMap <K, V>
+    {
+        private final K       lo, hi;                                 // bounds of the range
+        private final boolean loInclusive, hiInclusive;               // whether the bounds are included
+        private Set <Map.Entry <K, V>> entries;                       // views, created on first use
+        private Set <K>                keys;
+        private Collection <V>         vals;
+
+        SubMap (K _lo, boolean _loInclusive, K _hi, boolean _hiInclusive)
+        {
+            lo = _lo; loInclusive = _loInclusive;
+            hi = _hi; hiInclusive = _hiInclusive;
+        } // constructor
+
+        /** Whether key k lies above the low bound. */
+        private boolean aboveLo (K k)
+        {
+            if (lo == null) return true;
+            int c = k.compareTo (lo);
+            return c > 0 || (c == 0 && loInclusive);
+        } // aboveLo
+
+        /** Whether key k lies below the high bound. */
+        private boolean belowHi (K k)
+        {
+            if (hi == null) return true;
+            int c = k.compareTo (hi);
+            return c < 0 || (c == 0 && hiInclusive);
+        } // belowHi
+
+        public Comparator <? super K> comparator () { return null; }
+
+        public Set <Map.Entry <K, V>> entrySet ()
+        {
+            if (entries == null) entries = new AbstractSet <Map.Entry <K, V>> () {
+                public Iterator <Map.Entry <K, V>> iterator ()
+                {
+                    return new LeafIterator <Map.Entry <K, V>> (lo, loInclusive, hi, hiInclusive) {
+                        Map.Entry <K, V> element (K k, V v) { return new AbstractMap.SimpleImmutableEntry <> (k, v); }
+                    };
+                } // iterator
+                public int size () { return SubMap.this.size (); }
+            };
+            return entries;
+        } // entrySet
+
+        public Set <K> keySet ()
+        {
+            if (keys == null) keys = new AbstractSet <K> () {
+                public Iterator <K> iterator ()
+                {
+                    return new LeafIterator <K> (lo, loInclusive, hi, hiInclusive) {
+                        K element (K k, V v) { return k; }
+                    };
+                } // iterator
+                public boolean contains (Object k) { return containsKey (k); }
+                public int size () { return SubMap.this.size (); }
+            };
+            return keys;
+        } // keySet
+
+        public Collection <V> values ()
+        {
+            if (vals == null) vals = new AbstractCollection <V> () {
+                public Iterator <V> iterator ()
+                {
+                    return new LeafIterator <V> (lo, loInclusive, hi, hiInclusive) {
+                        V element (K k, V v) { return v; }
+                    };
+                } // iterator
+                public int size () { return SubMap.this.size (); }
+            };
+            return vals;
+        } // values
+
+        public int size ()
+        {
+            if (lo == null && hi == null) return keyCount.get ();
+            int n = 0;
+            for (Iterator <K> it = keySet ().iterator (); it.hasNext (); it.next ()) n++;
+            return n;
+        } // size
+
+        @SuppressWarnings("unchecked")
+        public V get (Object key)
+        {
+            K k = (K) key;
+            return (aboveLo (k) && belowHi (k)) ? BpTreeMap.this.get (k) : null;
+        } // get
+
+        public boolean containsKey (Object key) { return get (key) != null; }
+
+        public V put (K key, V value)
+        {
+            if (! aboveLo (key) || ! belowHi (key)) {
+                throw new IllegalArgumentException ("BpTreeMap.SubMap.put: key out of range " + key);
+            } // if
+            return BpTreeMap.this.put (key, value);
+        } // put
+
+        public K firstKey ()
+        {
+            Iterator <Map.Entry <K, V>> it = entrySet ().iterator ();
+            if (! it.hasNext ()) throw new NoSuchElementException ("BpTreeMap.SubMap.firstKey: empty map");
+            return it.next ().getKey ();
+        } // firstKey
+
+        public K lastKey ()
+        {
+            K last = null;
+            for (Map.Entry <K, V> e : entrySet ()) last = e.getKey ();
+            if (last == null) throw new NoSuchElementException ("BpTreeMap.SubMap.lastKey: empty map");
+            return last;
+        } // lastKey
+
+        public SortedMap <K, V> headMap (K toKey)
+        {
+            return subMap (lo, loInclusive, toKey, false);
+        } // headMap
+
+        public SortedMap <K, V> tailMap (K fromKey)
+        {
+            return subMap (fromKey, true, hi, hiInclusive);
+        } // tailMap
+
+        public SortedMap <K, V> subMap (K fromKey, K toKey)
+        {
+            return subMap (fromKey, true, toKey, false);
+        } // subMap
+
+        /** Narrow this range by the given bounds (a null bound keeps this range's). */
+        private SortedMap <K, V> subMap (K fromKey, boolean fromInc, K toKey, boolean toInc)
+        {
+            if (fromKey == null || ! aboveLo (fromKey)) { fromKey = lo; fromInc = loInclusive; }
+            if (toKey == null || ! belowHi (toKey))     { toKey = hi;   toInc = hiInclusive; }
+            return new SubMap (fromKey, fromInc, toKey, toInc);
+        } // subMap
+
+    } // SubMap inner class
+
+    /********************************************************************************
+     * This inner class iterates over the B+Tree map in key order, starting at a low
+     * bound and stopping at a high bound.  It seeks the starting leaf in O(log n) and
+     * then follows the leaf links, copying the entries of one leaf at a time into a
+     * buffer while holding the leaf's read latch.  Each refill resumes just past the
+     * last key returned, so keys moved right by a concurrent split are neither
+     * missed nor repeated.  Subclasses choose what to return for each key (the entry,
+     * the key or the value).
+     */
+    private abstract class LeafIterator <T>
+            implements Iterator <T>
+    {
+        private Node            leaf;                                 // leaf to read next (null when done)
+        private K               from;                                 // resume bound (null if none)
+        private boolean         fromInclusive;                        // whether from is included
+        private final K         hi;                                   // high bound (null if none)
+        private final boolean   hiInclusive;                          // whether the high bound is included
+        private final Object [] keys = new Object [order];            // buffered keys
+        private final Object [] vals = new Object [order];            // buffered values
+        private int             pos, len;                             // next buffered entry, buffer size
+
+        LeafIterator (K lo, boolean loInclusive, K _hi, boolean _hiInclusive)
+        {
+            hi = _hi; hiInclusive = _hiInclusive;
+            from = lo; fromInclusive = loInclusive;
+            leaf = readLeaf (lo);
+            fill ();
+        } // constructor
+
+        /** Return the element of the iteration for key k with value v. */
+        abstract T element (K k, V v);
+
+        /** Buffer the next entries in range, moving right past exhausted leaves.
+         *  On entry, leaf is read latched; every latch is released on return. */
+        @SuppressWarnings("unchecked")
+        private void fill ()
+        {
+            pos = len = 0;
+            while (leaf != null) {
+                Node n = leaf, next = null;
+                try {
+                    int i = (from == null) ? 0 : n.find (from);
+                    if (from != null && ! fromInclusive && i < n.nKeys && n.key.compare (from, i) == 0) i++;
+                    for ( ; i < n.nKeys; i++) {
+                        K k = n.key.get (i);
+                        if (hi != null) {
+                            int c = k.compareTo (hi);
+                            if (c > 0 || (c == 0 && ! hiInclusive)) break;
+                        } // if
+                        keys[len] = k; vals[len] = n.ref[i]; len++;
+                    } // for
+                    if (len > 0 || i < n.nKeys) {                       // got entries or reached hi
+                        if (i < n.nKeys) leaf = null;
+                        if (len > 0) { from = (K) keys[len - 1]; fromInclusive = false; }
+                        return;
+                    } // if
+                    next = n.child (n.nKeys);
+                    if (next != null) next.latch.readLock ().lock ();
+                } finally {
+                    n.latch.readLock ().unlock ();
+                } // try
+                leaf = next;
+            } // while
+        } // fill
+
+        public boolean hasNext ()
+        {
+            if (pos < len) return true;
+            if (leaf == null) return false;
+            leaf.latch.readLock ().lock ();
+            fill ();
+            return pos < len;
+        } // hasNext
+
+        @SuppressWarnings("unchecked")
+        public T next ()
+        {
+            if (! hasNext ()) throw new NoSuchElementException ();
+            T e = element ((K) keys[pos], (V) vals[pos]);
+            keys[pos] = vals[pos] = null;
+            pos++;
+            return e;
+        } // next
+
+    } // LeafIterator inner class
+
     /********************************************************************************
      * Return the size (number of keys) in the B+Tree.
      * @return  the size of the B+Tree
      */
     public int size ()
     {
-        return keyCount;
+        return keyCount.get ();
     } // size
 
     /********************************************************************************
@@ -368,7 +785,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
 
         for (int j = 0; j < level; j++) out.print ("\t");
         out.print ("[ . ");
-        for (int i = 0; i < n.nKeys; i++) out.print (n.key[i] + " . ");
+        for (int i = 0; i < n.nKeys; i++) out.print (n.key.get (i) + " . ");
         out.println ("]");
         if ( ! n.isLeaf) {
             for (int i = 0; i <= n.nKeys; i++) print ((Node) n.ref[i], level + 1);
@@ -378,146 +795,94 @@ public class BpTreeMap <K extends Comparable <K>, V>
     } // print
 
     /********************************************************************************
-     * Recursive helper function for finding a key in B+trees.
-     * @param key  the key to find
-     * @param n    the current node
+     * Descend to the leaf that holds key k (or to the first leaf if k is null) by
+     * latch crabbing, and return it read latched.
+     * @param k  the key to find (null for the first leaf)
+     * @return  the leaf, which the caller must unlatch
      */
-    @SuppressWarnings("unchecked")
-    private V find (K key, Node n)
+    private Node readLeaf (K k)
     {
-        count++;
-        int i = n.find (key);
-        if (i < n.nKeys) {
-            K k_i = n.key[i];
-            if (n.isLeaf) return (key.compareTo (k_i) == 0) ? (V) n.ref[i] : null;
-            else          return find (key, (Node) n.ref[i]);
-        } else {
-            return (n.isLeaf) ? null : find (key, (Node) n.ref[n.nKeys]);
-        } // if
-    } // find
+        rootLatch.readLock ().lock ();
+        Node n = (k == null) ? firstLeaf : root;
+        n.latch.readLock ().lock ();
+        rootLatch.readLock ().unlock ();
+        while (! n.isLeaf) {
+            count.increment ();
+            Node child = n.child (n.find (k));
+            child.latch.readLock ().lock ();
+            n.latch.readLock ().unlock ();
+            n = child;
+        } // while
+        count.increment ();
+        return n;
+    } // readLeaf
+
+    /********************************************************************************
+     * Latch node n for writing if it is to be modified, else for reading.
+     * @param n      the node to latch
+     * @param write  whether to take the write latch
+     */
+    private void latch (Node n, boolean write)
+    {
+        if (write) n.latch.writeLock ().lock ();
+        else       n.latch.readLock ().lock ();
+    } // latch
 
     /********************************************************************************
-     * Recursive helper function for inserting a key in B+trees.
+     * Determine whether inserting one key into node n cannot split it.
+     * @param n  the node to check
+     * @return  whether n is safe from splitting
+     */
+    private boolean safe (Node n)
+    {
+        return n.nKeys + 1 < order;
+    } // safe
+
+    /********************************************************************************
+     * Recursive helper function for inserting a key in B+trees.  When a child is
+     * split, its right sibling is wedged into n together with the divider key, and
+     * n is split in turn if it overflows.
      * @param key  the key to insert
-     * @param ref  the value/node to insert
+     * @param ref  the value to insert
      * @param n    the current node
-     * @return  the newly allocated right sibling node of n 
+     * @param old  holder for the value previously associated with key (if any)
+     * @return  the newly allocated right sibling node of n, or null if n was not split
      */
     @SuppressWarnings("unchecked")
-    private Node insert (K key, V ref, Node n)
+    private Node insert (K key, V ref, Node n, Object [] old)
     {
-	        out.println ("=============================================================");
-        out.println ("insert: key = " + key);
-        out.println ("=============================================================");
+        int i = n.find (key);
 
-        Node rt = null;  
-        //rt = insert (key, ref, (Node)n.ref);
-        // holder for right sibling
-        
-        //K tempKey = n.key[n.nKeys];
-        
-        
-        if (n.isLeaf) 
-        {                                                      // handle leaf node level
-
-            if (n.nKeys < ORDER - 1) 
-            {                                      		  // current node is not full
-                wedge (key, ref, n, n.find (key), true);  // wedge (key, ref) pair in at position i
-                	//System.out.println("TEMP KEY " + key.toString() + " ref is " + ref.toString()); 
-                
-            } 
-            
-            else 
-            {                                                         		// current node is full
-                rt = split (key, ref, n, true); 							// split current node, return right sibling
-                n.ref[n.nKeys] = rt;                                        // link leaf n to leaf rt
-                if (n == root && rt != null) 
-                {
-                    root = makeRoot (n, n.key[n.nKeys-1], rt);               // make a new root
-                } 
-                
-                
-                else if (rt != null) 
-                {
-                    hasSplit = true;                                         // indicate an unhandled split
-                } // if
+        if (n.isLeaf) {                                                 // handle leaf node level
+            if (i < n.nKeys && n.key.compare (key, i) == 0) {
+                old[0]   = n.ref[i];                                    // replace the value
+                n.ref[i] = ref;
+                return null;
             } // if
-
-        } 
-        
-        
-        
-        else 
-        {                                                             // handle internal node level
-
-            int i = n.find (key); // find "<=" position 
-            
-            Node temp = (Node) n.ref[i];
-            //node that we are inserting into. 
-            
-            
-            rt = insert (key, ref, temp);
-            
-            
-             
-            //Node temp = null;
-           
-            //gets value to be wedged in. 
-            //K tempKey = n.key[n.nKeys]; 
-            
-           
-            //System.out.println(temp.toString()); 
-            
-            if (hasSplit == true)
-            {
-
-	            if( (n.nKeys < ORDER - 1))
-	            {
-	            	//handle non overflow case. 
-	            	System.out.println("Length is: " + temp.key.length); 
-	            	
-
-	                	wedge (tempKey, rt, n, n.find(tempKey), false); 
-	                	//adds value into node if not overflow. 
-	            	
-	                	hasSplit = false; 
-	            }
-	            
-	            else
-	            {
-	            	//handles cases of overflow. 
-	            	//very similar to prewritten code but had to make modificaitons to handle the non leaf cases. 
-	            	
-
-	            	
-	            	rt = split(tempKey, rt, n, true); 
-	            	//make split. 
-	            	
-	            	
-	            	if (n == root && rt != null)
-	            	{
-	            		root = makeRoot (n, tempKey, rt); 
-	            		n.nKeys-=1; 
-	            		//handle root case. 
-	            	}
-	            		
-	            	else if (rt != null)
-	            		hasSplit = true; 
-	            	
-	            	hasSplit = true; 
- 
-	            }
-            }
-
-
+            wedge (key, ref, n, i, true);
+            keyCount.incrementAndGet ();
+        } else {                                                        // handle internal node level
+            Node child = (Node) n.ref[i];
+            Node rt    = insert (key, ref, child, old);
+            if (rt == null) return null;                                // no split below
+            wedge (divider (child), rt, n, i, false);
         } // if
-/*
- * 
- */
-        if (DEBUG) print (root, 0);
-        return rt;                                                           // return right node
+
+        return (n.nKeys < order) ? null : split (n);                    // split n if it overflowed
     } // insert
 
+    /********************************************************************************
+     * Return the divider key to place in the parent between node n and the right
+     * sibling split off from it: the largest key of a leaf, or for an internal node
+     * the middle key that split left just past its active keys.
+     * @param n  the left node of a split
+     * @return  the divider key (largest left)
+     */
+    private K divider (Node n)
+    {
+        return n.isLeaf ? n.key.get (n.nKeys - 1) : n.key.get (n.nKeys);
+    } // divider
+
     /********************************************************************************
      * Make a new root, linking to left and right child node, separated by a divider key.
      * @param ref0  the reference to the left child node
@@ -527,10 +892,10 @@ public class BpTreeMap <K extends Comparable <K>, V>
      */
     private Node makeRoot (Node ref0, K key0, Node ref1)
     {
-        Node nr   = new Node (ORDER, false);                          // make a node to become the new root
+        Node nr   = new Node (order, false);                          // make a node to become the new root
         nr.nKeys  = 1;                                                
         nr.ref[0] = ref0;                                             // reference to left node
-        nr.key[0] = key0;                                             // divider key - largest left
+        nr.key.set (0, key0);                                         // divider key - largest left
         nr.ref[1] = ref1;                                             // reference to right node
         return nr;
     } // makeRoot
@@ -541,61 +906,50 @@ public class BpTreeMap <K extends Comparable <K>, V>
      * @param ref   the value/node to insert
      * @param n     the current node
      * @param i     the insertion position within node n
-     * @param left  whether to start from the left side of the key
-     * @return  whether wedge succeeded (i.e., no duplicate)
+     * @param left  whether the ref goes to the left of the key (leaf) or right (internal)
      */
-    private boolean wedge (K key, Object ref, Node n, int i, boolean left)
+    private void wedge (K key, Object ref, Node n, int i, boolean left)
     {
-        if (i < n.nKeys && key.compareTo(n.key[i]) == 0) {
-             out.println ("BpTreeMap.insert: attempt to insert duplicate key = " + key);
-             return false;
-        } // if
         n.ref[n.nKeys + 1] = n.ref[n.nKeys];                          // preserving the last ref
+        n.key.copy (i, n.key, i + 1, n.nKeys - i);                    // make room: shift keys right
         for (int j = n.nKeys; j > i; j--) {
-            n.key[j] = n.key[j-1];                                    // make room: shift keys right
             if (left || j > i + 1) n.ref[j] = n.ref[j-1];             // make room: shift refs right
         } // for
-        n.key[i] = key;                                               // place new key
-        if (left) 
-        	n.ref[i] = ref; 
-        else 
-        	n.ref[i+1] = ref;              // place new ref
+        n.key.set (i, key);                                           // place new key
+        if (left) n.ref[i] = ref;                                     // place new ref
+        else      n.ref[i+1] = ref;
         n.nKeys++;                                                    // increment number of keys
-        return true;
     } // wedge
 
     /********************************************************************************
-     * Split node n and return the newly created right sibling node rt.  The bigger half
-     * should go in the current node n, with the remaining going in rt.
-     * @param key  the new key to insert
-     * @param ref  the new value/node to insert
-     * @param n    the current node
-     * @return  the right sibling node, if allocated, else null
-     */
-    private Node split (K key, Object ref, Node n, boolean left)
-    {
-        bn.copy (n, 0, ORDER-1);                                          // copy n into big node                           
-        if (wedge (key, ref, bn, bn.find (key), left)) {                  // if wedge (key, ref) into big node was successful
-            n.copy (bn, 0, MID);                                          // copy back first half to node n
-            Node rt = new Node (ORDER, n.isLeaf);                         // make a right sibling node (rt)
-            rt.copy (bn, MID, ORDER-MID);                                 // copy second to node rt  
-            updateTempKey(n); 
-            return rt;                                                    // return right sibling
-        } // if     
-        return null;                                                      // no new node created as key is duplicate
+     * Split the overflowing node n (holding order keys) and return the newly created
+     * right sibling node rt.  The bigger half stays in n.  A leaf's sibling link is
+     * passed on to rt; for an internal node the middle key is promoted, and is left
+     * at n.key.get (n.nKeys) for the parent to pick up (see divider).
+     * @param n  the current node
+     * @return  the right sibling node
+     */
+    private Node split (Node n)
+    {
+        Node rt = new Node (order, n.isLeaf);
+        int  lc = n.isLeaf ? (order + 1) / 2 : order / 2;            // keys kept in n
+        int  rc = n.isLeaf ? order - lc : order - lc - 1;            // keys moved to rt
+        int  from = n.isLeaf ? lc : lc + 1;
+
+        n.key.copy (from, rt.key, 0, rc);
+        for (int j = 0; j < rc; j++) rt.ref[j] = n.ref[from + j];
+        rt.ref[rc] = n.ref[from + rc];                                // last ref (leaf: sibling link)
+        rt.nKeys   = rc;
+
+        for (int j = from; j <= order; j++) {                         // clear what moved out of n
+            if (j < order) n.key.clear (j);
+            n.ref[j] = null;
+        } // for
+        if (n.isLeaf) n.ref[lc] = rt;                                 // link leaf n to leaf rt
+        n.nKeys = lc;
+        return rt;
     } // split
 
-    private K updateTempKey(Node n)
-    {
-    		if (n.key != null)
-    			tempKey = n.key[n.nKeys]; 
-    		
-    		return tempKey; 
-    		
-    		//used to update the key 
-    }
-	
-	
     /********************************************************************************
      * The main method used for testing.
      * @param  the command-line arguments (args[0] gives number of keys to insert)
@@ -605,7 +959,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
         int totalKeys    = 21;                    
         boolean RANDOMLY = false;
 
-        BpTreeMap <Integer, Integer> bpt = new BpTreeMap <> (Integer.class, Integer.class);
+        BpTreeMap <Integer, Integer> bpt = new BpTreeMap <> (Integer.class, Integer.class, 5);
         if (args.length == 1) 
         	totalKeys = Integer.valueOf (args[0]);
    
@@ -631,7 +985,7 @@ public class BpTreeMap <K extends Comparable <K>, V>
             out.println ("key = " + i + " value = " + bpt.get (i));
         } // for
         out.println ("-------------------------------------------");
-        out.println ("Average number of nodes accessed = " + bpt.count / (double) totalKeys);
+        out.println ("Average number of nodes accessed = " + bpt.count.sum () / (double) totalKeys);
         
         Integer x = 5;    
         
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * @file  BufferPool.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/*******************************************************************************
+ * This class caches the fixed-size pages of a file in a bounded number of
+ * in-memory frames.  When every frame is in use, the least recently used page
+ * is evicted, being written back first if it was modified.
+ */
+class BufferPool
+{
+    /** The size of a page in bytes.
+     */
+    static final int PAGE_SIZE = 4096;
+
+    /** The file channel that holds the pages.
+     */
+    private final FileChannel channel;
+
+    /** The maximum number of pages held in memory.
+     */
+    private final int frames;
+
+    /** The cached pages, keyed by page number, kept in least-recently-used order.
+     */
+    private final LinkedHashMap <Integer, Frame> pool;
+
+    /** Counters for page requests served from memory and from the file.
+     */
+    private long hits = 0, misses = 0;
+
+    /***************************************************************************
+     * This inner class holds a page in a frame of the buffer pool.
+     */
+    private static class Frame
+    {
+        final int        pageNo;                                       // page held by the frame
+        final ByteBuffer data = ByteBuffer.allocate (PAGE_SIZE);       // contents of the page
+        boolean          dirty;                                        // whether modified since read
+
+        Frame (int _pageNo) { pageNo = _pageNo; }
+    } // Frame inner class
+
+    /***************************************************************************
+     * Construct a buffer pool over the pages of the given file.
+     * @param _channel  the file channel holding the pages
+     * @param _frames   the number of frames (pages held in memory)
+     */
+    BufferPool (FileChannel _channel, int _frames)
+    {
+        if (_frames < 1) throw new IllegalArgumentException ("BufferPool: need at least one frame");
+        channel = _channel;
+        frames  = _frames;
+        pool    = new LinkedHashMap <Integer, Frame> (2 * _frames, 0.75f, true) {
+            protected boolean removeEldestEntry (Map.Entry <Integer, Frame> eldest)
+            {
+                if (size () <= frames) return false;
+                writeBack (eldest.getValue ());
+                return true;
+            } // removeEldestEntry
+        };
+    } // constructor
+
+    /***************************************************************************
+     * Return the buffer holding the given page, reading it from the file if it
+     * is not in memory.  Pages past the end of the file read as zeros.  The
+     * buffer is only valid until the next call to page.
+     * @param pageNo  the number of the page
+     * @return  the buffer holding the page
+     */
+    ByteBuffer page (int pageNo)
+    {
+        Frame f = pool.get (pageNo);
+        if (f != null) {
+            hits++;
+            return f.data;
+        } // if
+
+        misses++;
+        f = new Frame (pageNo);
+        try {
+            long pos = (long) pageNo * PAGE_SIZE;
+            while (f.data.hasRemaining ()) {
+                if (channel.read (f.data, pos + f.data.position ()) < 0) break;
+            } // while
+        } catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        } // try
+        f.data.clear ();
+        pool.put (pageNo, f);
+        return f.data;
+    } // page
+
+    /***************************************************************************
+     * Mark the given (cached) page as modified, so it is written back before
+     * being evicted.
+     * @param pageNo  the number of the page
+     */
+    void markDirty (int pageNo)
+    {
+        Frame f = pool.get (pageNo);
+        if (f != null) f.dirty = true;
+    } // markDirty
+
+    /***************************************************************************
+     * Write every modified page back to the file.
+     */
+    void flush ()
+    {
+        for (Frame f : pool.values ()) writeBack (f);
+    } // flush
+
+    /***************************************************************************
+     * Return the fraction of page requests served from memory.
+     * @return  the hit ratio
+     */
+    double hitRatio ()
+    {
+        return (hits + misses == 0) ? 0.0 : hits / (double) (hits + misses);
+    } // hitRatio
+
+    /***************************************************************************
+     * Write the page in frame f back to the file if it has been modified.
+     * @param f  the frame to write back
+     */
+    private void writeBack (Frame f)
+    {
+        if (! f.dirty) return;
+        try {
+            ByteBuffer data = f.data.duplicate ();
+            data.clear ();
+            long pos = (long) f.pageNo * PAGE_SIZE;
+            while (data.hasRemaining ()) channel.write (data, pos + data.position ());
+        } catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        } // try
+        f.dirty = false;
+    } // writeBack
+
+} // BufferPool class
+
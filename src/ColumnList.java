@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * @file  ColumnList.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/*******************************************************************************
+ * This class stores data tuples column by column: each attribute has its own
+ * file.  Numeric and character attributes use fixed-width primitive encodings
+ * (value i of a column lives at i * width), while string attributes are stored
+ * in writeUTF form with an in-memory offset directory.  Operators that touch
+ * only a few attributes can scan just those columns (see scan).  The column
+ * buffers are shared, so add and get are synchronized.
+ */
+public class ColumnList extends AbstractList <Comparable []> implements List <Comparable []>, RandomAccess, Serializable
+{
+    /** File extension for column files.
+     */
+    private static final String EXT = ".col";
+
+    /** Size of the buffers used to append to and scan a column.
+     */
+    private static final int BUFFER = 1 << 16;
+
+    /** The name of table.
+     */
+    private final String tableName;
+
+    /** Array of attribute domains.
+     */
+    private final Class [] domain;
+
+    /** The columns, one per attribute.
+     */
+    private final Column [] column;
+
+    /** Counter for the number of tuples in this list.
+     */
+    private volatile int nRecords = 0;
+
+    /***************************************************************************
+     * This inner class holds one attribute's values in a file of its own.
+     */
+    private static class Column
+            implements Serializable
+    {
+        final String         fileName;                       // file holding the values
+        final Class          type;                           // domain of the values
+        final int            width;                          // bytes per value, -1 if variable
+        long []              offset = new long [16];         // start of each value if variable
+        long                 end    = 0;                     // end of the values written
+        transient TupleCodec codec;                          // packs a single value
+        transient RandomAccessFile file;
+        transient ByteBuffer tail;                           // values appended but not yet written
+
+        Column (String _fileName, Class _type)
+        {
+            fileName = _fileName;
+            type     = _type;
+            width    = new TupleCodec (new Class [] { type }).fixedSize ();
+            open ();
+        } // constructor
+
+        void open ()
+        {
+            codec = new TupleCodec (new Class [] { type });
+            tail  = ByteBuffer.allocate (BUFFER);
+            try {
+                file = new RandomAccessFile (fileName, "rw");
+            } catch (FileNotFoundException ex) {
+                out.println ("ColumnList.Column: unable to open - " + ex);
+            } // try
+        } // open
+
+        /** Return the packed size of value v. */
+        int size (Comparable v, Comparable [] holder)
+        {
+            holder [0] = v;
+            return codec.size (holder);
+        } // size
+
+        /** Append value v as row i. */
+        void append (Comparable v, int i, Comparable [] holder)
+        {
+            int length = size (v, holder);
+            if (tail.remaining () < length) flush ();
+            codec.encode (holder, tail);
+            if (width < 0) {
+                if (i + 1 >= offset.length) offset = Arrays.copyOf (offset, 2 * offset.length);
+                offset [i + 1] = offset [i] + length;
+            } // if
+            end += length;
+        } // append
+
+        /** Write the pending values to the file. */
+        void flush ()
+        {
+            if (tail.position () == 0) return;
+            tail.flip ();
+            try {
+                FileChannel channel = file.getChannel ();
+                long pos = end - tail.remaining ();
+                while (tail.hasRemaining ()) channel.write (tail, pos + tail.position ());
+            } catch (IOException ex) {
+                throw new UncheckedIOException (ex);
+            } // try
+            tail.clear ();
+        } // flush
+
+        long start (int i) { return (width < 0) ? offset [i] : (long) i * width; }
+
+        private void readObject (ObjectInputStream ois)
+                throws IOException, ClassNotFoundException
+        {
+            ois.defaultReadObject ();
+            open ();
+        } // readObject
+
+    } // Column inner class
+
+    /***************************************************************************
+     * Construct a ColumnList.
+     * @param _tableName  the name of the table
+     * @param _domain     the domains of the attributes
+     */
+    public ColumnList (String _tableName, Class [] _domain)
+    {
+        tableName = _tableName;
+        domain    = _domain;
+        column    = new Column [domain.length];
+        for (int j = 0; j < column.length; j++) {
+            column [j] = new Column (tableName + "." + j + EXT, domain [j]);
+        } // for
+    } // constructor
+
+    /***************************************************************************
+     * Add a new tuple by appending each of its values to its column.
+     * @param tuple  the tuple to add
+     * @return  whether the addition succeeded
+     */
+    public synchronized boolean add (Comparable [] tuple)
+    {
+        Comparable [] holder = new Comparable [1];
+        for (int j = 0; j < column.length; j++) {
+            if (column [j].size (tuple [j], holder) > BUFFER) {
+                out.println ("ColumnList.add: value too long in column " + j);
+                return false;
+            } // if
+        } // for
+        for (int j = 0; j < column.length; j++) column [j].append (tuple [j], nRecords, holder);
+        nRecords++;
+        return true;
+    } // add
+
+    /***************************************************************************
+     * Get the ith tuple by reading its value from every column.
+     * @param i  the index of the tuple to get
+     * @return  the ith tuple
+     */
+    public synchronized Comparable [] get (int i)
+    {
+        if (i < 0 || i >= nRecords) throw new IndexOutOfBoundsException ("ColumnList.get: " + i);
+        Comparable [] tuple = new Comparable [column.length];
+        for (int j = 0; j < column.length; j++) {
+            Column c = column [j];
+            c.flush ();
+            long       from = c.start (i);
+            long       to   = (c.width < 0) ? c.offset [i + 1] : from + c.width;
+            ByteBuffer buf  = ByteBuffer.allocate ((int) (to - from));
+            read (c, buf, from);
+            tuple [j] = c.codec.decode (buf, 0) [0];
+        } // for
+        return tuple;
+    } // get
+
+    /***************************************************************************
+     * Return an iterator that scans all the columns side by side.
+     * @return  a forward iterator over the tuples
+     */
+    @Override
+    public Iterator <Comparable []> iterator ()
+    {
+        int [] all = new int [column.length];
+        for (int j = 0; j < all.length; j++) all [j] = j;
+        return scan (all).iterator ();
+    } // iterator
+
+    /***************************************************************************
+     * Scan only the given columns, returning for each tuple (in order) a narrow
+     * tuple holding the values of those columns.  Each column is read
+     * sequentially in large chunks; the other columns are not read at all.
+     * The pending values are flushed and the extent of the scan (the number of
+     * tuples and the offset directories) captured under the list's lock, so
+     * tuples added later are not seen.
+     *
+     * #usage ((ColumnList) movie.getTuples ()).scan (new int [] { 0, 1 })
+     *
+     * @param cols  the positions of the columns to read
+     * @return  the narrow tuples in order
+     */
+    public Iterable <Comparable []> scan (int [] cols)
+    {
+        final int      end;
+        final long [][] off = new long [cols.length][];
+        synchronized (this) {
+            for (int j : cols) column [j].flush ();
+            end = nRecords;
+            for (int k = 0; k < cols.length; k++) off [k] = column [cols [k]].offset;
+        } // synchronized
+        return () -> new Iterator <Comparable []> () {
+            final ColumnReader [] reader = new ColumnReader [cols.length];
+            int next = 0;
+            {
+                for (int k = 0; k < cols.length; k++) reader [k] = new ColumnReader (column [cols [k]], off [k], end);
+            }
+            public boolean hasNext () { return next < end; }
+            public Comparable [] next ()
+            {
+                if (next >= end) throw new NoSuchElementException ();
+                Comparable [] t = new Comparable [cols.length];
+                for (int k = 0; k < cols.length; k++) t [k] = reader [k].value (next);
+                next++;
+                return t;
+            } // next
+        };
+    } // scan
+
+    /***************************************************************************
+     * This inner class reads the values of one column front to back through a
+     * large buffer.
+     */
+    private static class ColumnReader
+    {
+        private final Column     c;
+        private final long []    off;                              // offset directory as of the scan
+        private final long       limit;                            // end of the values to scan
+        private final ByteBuffer buf   = ByteBuffer.allocate (BUFFER);
+        private long             start = 0;                        // file position of buf[0]
+
+        ColumnReader (Column _c, long [] _off, int end)
+        {
+            c     = _c;
+            off   = _off;
+            limit = start (end);
+            buf.limit (0);
+        } // constructor
+
+        long start (int i) { return (c.width < 0) ? off [i] : (long) i * c.width; }
+
+        Comparable value (int i)
+        {
+            long from = start (i);
+            long to   = (c.width < 0) ? off [i + 1] : from + c.width;
+            if (to > start + buf.limit ()) {
+                start = from;
+                buf.clear ();
+                buf.limit ((int) Math.min (BUFFER, limit - from));
+                read (c, buf, from);
+            } // if
+            return c.codec.decode (buf, (int) (from - start)) [0];
+        } // value
+
+    } // ColumnReader inner class
+
+    /***************************************************************************
+     * Fill buf (up to its limit) with the bytes of column c starting at pos.
+     * @param c    the column to read
+     * @param buf  the buffer to fill, which is rewound afterwards
+     * @param pos  the file position to read from
+     */
+    private static void read (Column c, ByteBuffer buf, long pos)
+    {
+        try {
+            FileChannel channel = c.file.getChannel ();
+            while (buf.hasRemaining ()) {
+                if (channel.read (buf, pos + buf.position ()) < 0) break;
+            } // while
+        } catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        } // try
+        buf.flip ();
+    } // read
+
+    /***************************************************************************
+     * Return the size of the column list in terms of the number of tuples.
+     * @return  the number of tuples
+     */
+    public int size ()
+    {
+        return nRecords;
+    } // size
+
+    /***************************************************************************
+     * Write the pending values before this list is serialized (e.g., by
+     * Table.save).
+     * @param oos  the stream to write the list to
+     */
+    private synchronized void writeObject (ObjectOutputStream oos) throws IOException
+    {
+        for (Column c : column) c.flush ();
+        oos.defaultWriteObject ();
+    } // writeObject
+
+} // ColumnList class
+
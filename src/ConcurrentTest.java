@@ -0,0 +1,125 @@
+/*****************************************************************************************
+ * @file  ConcurrentTest.java
+ *
+ * @author   John Miller
+ */
+
+import static java.lang.System.out;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*****************************************************************************************
+ * The ConcurrentTest class checks that a table may be shared by threads.  For each kind
+ * of primary-key index (MapType), several threads insert disjoint tuples while others
+ * run key, range and secondary-index selects against the growing table and a secondary
+ * index is created; the table is then checked for every tuple and every index entry.
+ */
+class ConcurrentTest
+{
+    /** The number of inserting threads and the number of tuples each inserts.
+     */
+    private static final int WRITERS = 4, ROWS = 500;
+
+    /** The number of selecting threads.
+     */
+    private static final int READERS = 2;
+
+    /*************************************************************************************
+     * Main method for running the concurrency check on each kind of index.
+     * @param args  the command-line arguments
+     */
+    public static void main (String [] args)
+    {
+        int failed = 0;
+        for (Table.MapType mapType : Table.MapType.values ()) {
+            String error = test (mapType);
+            out.println ("ConcurrentTest: " + mapType + (error == null ? " passed" : " FAILED - " + error));
+            if (error != null) failed++;
+        } // for
+        if (failed > 0) System.exit (1);
+    } // main
+
+    /*************************************************************************************
+     * Insert into and select from a table using the given kind of index concurrently.
+     * @param mapType  the kind of primary-key index
+     * @return  a description of the first error found, or null if there is none
+     */
+    private static String test (Table.MapType mapType)
+    {
+        Table table = new Table ("concurrent" + mapType, new String [] { "id", "name", "group" },
+                                 new Class [] { Integer.class, String.class, Integer.class },
+                                 new String [] { "id" }, Table.Storage.FILE, mapType);
+
+        int            total   = WRITERS * ROWS;
+        List <String>  errors  = new ArrayList <> ();
+        List <Thread>  threads = new ArrayList <> ();
+
+        for (int w = 0; w < WRITERS; w++) {
+            final int first = w * ROWS;
+            threads.add (new Thread (() -> {
+                for (int id = first; id < first + ROWS; id++) {
+                    if (! table.insert (new Comparable [] { id, "name" + id, id % 10 })) {
+                        error (errors, "insert of " + id + " failed");
+                    } // if
+                } // for
+            }));
+        } // for
+
+        for (int r = 0; r < READERS; r++) {
+            threads.add (new Thread (() -> {
+                try {
+                    for (int i = 0; i < total; i += 25) {
+                        for (Comparable [] t : table.select (new KeyType (i)).getTuples ()) {
+                            if (! t [0].equals (i) || ! t [1].equals ("name" + i)) error (errors, "key select of " + i);
+                        } // for
+                        for (Comparable [] t : table.select (new KeyType (i), new KeyType (i + 9)).getTuples ()) {
+                            int id = (Integer) t [0];
+                            if (id < i || id > i + 9) error (errors, "range select returned " + id);
+                        } // for
+                        for (Comparable [] t : table.select ("group", new KeyType (i % 10)).getTuples ()) {
+                            if (! t [2].equals (i % 10)) error (errors, "group select returned " + t [0]);
+                        } // for
+                    } // for
+                } catch (RuntimeException ex) {
+                    error (errors, "select threw " + ex);
+                } // try
+            }));
+        } // for
+
+        for (Thread t : threads) t.start ();
+        table.createIndex ("group", Table.IndexKind.ORDERED);              // while inserts run
+        try {
+            for (Thread t : threads) t.join ();
+        } catch (InterruptedException ex) {
+            return "interrupted";
+        } // try
+        if (! errors.isEmpty ()) return errors.get (0);
+
+        Set <Integer> ids = new HashSet <> ();
+        for (Comparable [] t : table.getTuples ()) ids.add ((Integer) t [0]);
+        if (ids.size () != total) return "holds " + ids.size () + " of " + total + " tuples";
+        for (int id = 0; id < total; id++) {
+            List <Comparable []> rows = table.select (new KeyType (id)).getTuples ();
+            if (rows.size () != 1 || ! rows.get (0) [0].equals (id)) return "key " + id + " is not indexed";
+        } // for
+        int inGroup = table.select ("group", new KeyType (3)).getTuples ().size ();
+        if (inGroup != total / 10) return "group 3 has " + inGroup + " of " + total / 10 + " tuples";
+        return null;
+    } // test
+
+    /*************************************************************************************
+     * Record an error seen by one of the threads.
+     * @param errors   the errors seen so far
+     * @param message  the description of the error
+     */
+    private static void error (List <String> errors, String message)
+    {
+        synchronized (errors) {
+            errors.add (message);
+        } // synchronized
+    } // error
+
+} // ConcurrentTest class
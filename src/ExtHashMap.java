@@ -0,0 +1,466 @@
+/************************************************************************************
+ * @file ExtHashMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The ExtHashMap class provides disk-resident hash maps from keys to row ids that
+ * use the Extendible Hashing algorithm.  The buckets are fixed-size pages of a
+ * ".bkt" file read through a buffer pool, and the directory (which maps the low
+ * globalDepth bits of a hash to a bucket) is kept in a ".dir" file.  When a bucket
+ * overflows, only that bucket is split, and the directory doubles only when the
+ * bucket was already at the global depth.  Since the map lives in its own files,
+ * reopening it (see readObject) reads just the directory.
+ *
+ * A bucket page is laid out as
+ *
+ *     [ localDepth | nEntries | freeStart | entry 0 | entry 1 | ... free space ]
+ *
+ * where each entry holds the key's hash, its row id, the length of the packed key
+ * and the key packed with a TupleCodec.  Lookups compare hashes and packed bytes,
+ * so keys are never unpacked to be compared.
+ */
+public class ExtHashMap
+       extends AbstractMap <KeyType, Integer>
+       implements Serializable, Map <KeyType, Integer>
+{
+    /** File extensions for the directory and bucket files.
+     */
+    private static final String DIR_EXT = ".dir", BKT_EXT = ".bkt";
+
+    /** Size of a bucket header (localDepth, nEntries, freeStart) and of the fixed part
+     *  of an entry (hash, row id, key length).
+     */
+    private static final int HEADER = 12, ENTRY = 10;
+
+    /** The deepest a bucket may be split (many keys sharing one hash cannot be split
+     *  apart).
+     */
+    private static final int MAX_DEPTH = 24;
+
+    /** The base name of the directory and bucket files.
+     */
+    private final String fileName;
+
+    /** The domains of the key attributes.
+     */
+    private final Class [] keyDomain;
+
+    /** The number of frames in the buffer pool.
+     */
+    private final int frames;
+
+    /** The directory: dir[h & (2^globalDepth - 1)] is the bucket for hash h.
+     */
+    transient private int [] dir;
+
+    /** The number of hash bits used to index the directory.
+     */
+    transient private int globalDepth;
+
+    /** The number of buckets (pages) in the bucket file.
+     */
+    transient private int nBuckets;
+
+    /** The counter for the total number of keys in the ExtHash Map
+     */
+    transient private int keyCount;
+
+    /** The random access file that holds the buckets.
+     */
+    transient private RandomAccessFile file;
+
+    /** The buffer pool caching the buckets.
+     */
+    transient private BufferPool pool;
+
+    /** The codec used to pack the keys.
+     */
+    transient private TupleCodec codec;
+
+    /** Scratch buffer holding the packed form of the key being looked up.
+     */
+    transient private ByteBuffer keyBuf;
+
+    /********************************************************************************
+     * Construct an empty hash map stored in fileName.dir and fileName.bkt (any
+     * existing contents of those files are discarded).
+     * @param _fileName   the base name of the files
+     * @param _keyDomain  the domains of the key attributes
+     * @param _frames     the number of buckets to cache in memory
+     */
+    public ExtHashMap (String _fileName, Class [] _keyDomain, int _frames)
+    {
+        fileName  = _fileName;
+        keyDomain = _keyDomain;
+        frames    = _frames;
+        open (true);
+    } // constructor
+
+    /********************************************************************************
+     * Open the bucket file, either starting an empty map or reading the directory
+     * of an existing one.
+     * @param create  whether to start an empty map
+     */
+    private void open (boolean create)
+    {
+        codec  = new TupleCodec (keyDomain);
+        keyBuf = ByteBuffer.allocate (BufferPool.PAGE_SIZE);
+        try {
+            file = new RandomAccessFile (fileName + BKT_EXT, "rw");
+            if (create) file.setLength (0);
+            pool = new BufferPool (file.getChannel (), frames);
+        } catch (IOException ex) {
+            out.println ("ExtHashMap.open: unable to open - " + ex);
+            return;
+        } // try
+
+        if (create) {
+            globalDepth = 0;
+            dir         = new int [] { 0 };
+            nBuckets    = 1;
+            keyCount    = 0;
+            ByteBuffer page = pool.page (0);
+            page.putInt (0, 0);
+            page.putInt (4, 0);
+            page.putInt (8, HEADER);
+            pool.markDirty (0);
+        } else {
+            readDirectory ();
+        } // if
+    } // open
+
+    /********************************************************************************
+     * Return a set containing all the entries as pairs of keys and row ids, read
+     * bucket by bucket.  Entries come in no particular order.
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <KeyType, Integer>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <KeyType, Integer>> () {
+            public Iterator <Map.Entry <KeyType, Integer>> iterator ()
+            {
+                return new Iterator <Map.Entry <KeyType, Integer>> () {
+                    final ByteBuffer page = ByteBuffer.allocate (BufferPool.PAGE_SIZE);
+                    int b    = -1;                         // current bucket
+                    int left = 0;                          // entries left in it
+                    int pos  = 0;                          // position of the next entry
+                    { advance (); }
+
+                    /** Move to the next bucket holding entries (b is nBuckets at the end). */
+                    void advance ()
+                    {
+                        while (left == 0 && ++b < nBuckets) {
+                            copy (pool.page (b), page);
+                            left = page.getInt (4);
+                            pos  = HEADER;
+                        } // while
+                    } // advance
+
+                    public boolean hasNext () { return b < nBuckets; }
+
+                    public Map.Entry <KeyType, Integer> next ()
+                    {
+                        if (b >= nBuckets) throw new NoSuchElementException ();
+                        KeyType k   = new KeyType (codec.decode (page, pos + ENTRY));
+                        int     rid = page.getInt (pos + 4);
+                        pos += ENTRY + (page.getShort (pos + 8) & 0xffff);
+                        left--;
+                        advance ();
+                        return new AbstractMap.SimpleImmutableEntry <> (k, rid);
+                    } // next
+                };
+            } // iterator
+
+            public int size () { return keyCount; }
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * Given the key, look up its row id.
+     * @param key  the key used for look up
+     * @return  the row id associated with the key, or null if there is none
+     */
+    public Integer get (Object key)
+    {
+        KeyType    k   = (KeyType) key;
+        int        h   = hash (k);
+        int        len = pack (k);
+        ByteBuffer page = pool.page (dir [h & mask ()]);
+        int        pos  = locate (page, h, len);
+        return (pos < 0) ? null : page.getInt (pos + 4);
+    } // get
+
+    /********************************************************************************
+     * Put the key and row id in the hash map, splitting the key's bucket (and
+     * doubling the directory if need be) until it has room.
+     * @param key  the key to insert
+     * @param rid  the row id to insert
+     * @return  the old row id associated with the key, or null if there was none
+     */
+    public Integer put (KeyType key, Integer rid)
+    {
+        int h   = hash (key);
+        int len = pack (key);
+        if (ENTRY + len > BufferPool.PAGE_SIZE - HEADER) {
+            throw new IllegalArgumentException ("ExtHashMap.put: key too long " + len);
+        } // if
+
+        int        b    = dir [h & mask ()];
+        ByteBuffer page = pool.page (b);
+        int        pos  = locate (page, h, len);
+        if (pos >= 0) {
+            int old = page.getInt (pos + 4);
+            page.putInt (pos + 4, rid);
+            pool.markDirty (b);
+            return old;
+        } // if
+
+        while (BufferPool.PAGE_SIZE - page.getInt (8) < ENTRY + len) {
+            split (b);
+            b    = dir [h & mask ()];
+            page = pool.page (b);
+        } // while
+
+        int free = page.getInt (8);
+        page.putInt (free, h);
+        page.putInt (free + 4, rid);
+        page.putShort (free + 8, (short) len);
+        for (int i = 0; i < len; i++) page.put (free + ENTRY + i, keyBuf.get (i));
+        page.putInt (4, page.getInt (4) + 1);
+        page.putInt (8, free + ENTRY + len);
+        pool.markDirty (b);
+        keyCount++;
+        return null;
+    } // put
+
+    /********************************************************************************
+     * Determine whether the hash map holds the given key.
+     * @param key  the key to look for
+     * @return  whether the key is in the map
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Remove all the entries, truncating the bucket file.
+     */
+    public void clear ()
+    {
+        try {
+            file.close ();
+        } catch (IOException ex) {
+            out.println ("ExtHashMap.clear: unable to close - " + ex);
+        } // try
+        open (true);
+    } // clear
+
+    /********************************************************************************
+     * Return the size (number of entries) in the hash map.
+     * @return  the size of the hash map
+     */
+    public int size ()
+    {
+        return keyCount;
+    } // size
+
+    /********************************************************************************
+     * Write the modified buckets and the directory to their files.
+     */
+    public void flush ()
+    {
+        pool.flush ();
+        try (DataOutputStream dos = new DataOutputStream (new BufferedOutputStream (
+                                        new FileOutputStream (fileName + DIR_EXT)))) {
+            dos.writeInt (globalDepth);
+            dos.writeInt (nBuckets);
+            dos.writeInt (keyCount);
+            for (int b : dir) dos.writeInt (b);
+        } catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        } // try
+    } // flush
+
+    /********************************************************************************
+     * Read the directory written by flush.
+     */
+    private void readDirectory ()
+    {
+        try (DataInputStream dis = new DataInputStream (new BufferedInputStream (
+                                       new FileInputStream (fileName + DIR_EXT)))) {
+            globalDepth = dis.readInt ();
+            nBuckets    = dis.readInt ();
+            keyCount    = dis.readInt ();
+            dir         = new int [1 << globalDepth];
+            for (int i = 0; i < dir.length; i++) dir [i] = dis.readInt ();
+        } catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        } // try
+    } // readDirectory
+
+    /********************************************************************************
+     * Split bucket b into itself and a new bucket, moving the entries whose next hash
+     * bit is set to the new bucket.  If b is at the global depth, the directory is
+     * doubled first.
+     * @param b  the bucket to split
+     */
+    private void split (int b)
+    {
+        ByteBuffer old = ByteBuffer.allocate (BufferPool.PAGE_SIZE);
+        copy (pool.page (b), old);
+        int depth = old.getInt (0);
+        if (depth >= MAX_DEPTH) throw new IllegalStateException ("ExtHashMap.split: too many keys with the same hash");
+
+        if (depth == globalDepth) {
+            int [] dir2 = new int [2 * dir.length];
+            for (int i = 0; i < dir2.length; i++) dir2 [i] = dir [i & (dir.length - 1)];
+            dir = dir2;
+            globalDepth++;
+        } // if
+
+        ByteBuffer lo = ByteBuffer.allocate (BufferPool.PAGE_SIZE), hi = ByteBuffer.allocate (BufferPool.PAGE_SIZE);
+        for (ByteBuffer p : new ByteBuffer [] { lo, hi }) {
+            p.putInt (0, depth + 1);
+            p.putInt (4, 0);
+            p.putInt (8, HEADER);
+        } // for
+        int pos = HEADER;
+        for (int n = old.getInt (4); n > 0; n--) {
+            int        length = ENTRY + (old.getShort (pos + 8) & 0xffff);
+            ByteBuffer to     = ((old.getInt (pos) >>> depth) & 1) == 0 ? lo : hi;
+            int        free   = to.getInt (8);
+            for (int i = 0; i < length; i++) to.put (free + i, old.get (pos + i));
+            to.putInt (4, to.getInt (4) + 1);
+            to.putInt (8, free + length);
+            pos += length;
+        } // for
+
+        int nb = nBuckets++;
+        copy (lo, pool.page (b));
+        pool.markDirty (b);
+        copy (hi, pool.page (nb));
+        pool.markDirty (nb);
+        for (int i = 0; i < dir.length; i++) {
+            if (dir [i] == b && ((i >>> depth) & 1) == 1) dir [i] = nb;
+        } // for
+    } // split
+
+    /********************************************************************************
+     * Find the entry in the page with the given hash whose packed key (of length len)
+     * matches the one in keyBuf.
+     * @param page  the bucket to search
+     * @param h     the hash of the key
+     * @param len   the length of the packed key
+     * @return  the position of the entry, or -1 if it is not there
+     */
+    private int locate (ByteBuffer page, int h, int len)
+    {
+        int pos = HEADER;
+        for (int n = page.getInt (4); n > 0; n--) {
+            int klen = page.getShort (pos + 8) & 0xffff;
+            if (page.getInt (pos) == h && klen == len) {
+                int i = 0;
+                while (i < len && page.get (pos + ENTRY + i) == keyBuf.get (i)) i++;
+                if (i == len) return pos;
+            } // if
+            pos += ENTRY + klen;
+        } // for
+        return -1;
+    } // locate
+
+    /********************************************************************************
+     * Pack the key into keyBuf.
+     * @param k  the key to pack
+     * @return  the packed length
+     */
+    private int pack (KeyType k)
+    {
+        keyBuf.clear ();
+        return codec.encode (k.getKey (), keyBuf);
+    } // pack
+
+    /********************************************************************************
+     * Return the mask selecting the hash bits used by the directory.
+     * @return  the directory mask
+     */
+    private int mask ()
+    {
+        return (1 << globalDepth) - 1;
+    } // mask
+
+    /********************************************************************************
+     * Hash the key, spreading the bits of its hash code so the low bits used by the
+     * directory depend on all of them.
+     * @param k  the key to hash
+     * @return  the hash
+     */
+    private static int hash (KeyType k)
+    {
+        int h = k.hashCode ();
+        return h ^ (h >>> 16) ^ (h >>> 8);
+    } // hash
+
+    /********************************************************************************
+     * Copy a whole page from one buffer to another.
+     * @param from  the page to copy
+     * @param to    the buffer to copy it into
+     */
+    private static void copy (ByteBuffer from, ByteBuffer to)
+    {
+        ByteBuffer src = from.duplicate ();
+        src.clear ();
+        ByteBuffer dst = to.duplicate ();
+        dst.clear ();
+        dst.put (src);
+    } // copy
+
+    /********************************************************************************
+     * Write the buckets and directory before this map is serialized (e.g., by
+     * Table.save); only the file names are written to the stream.
+     * @param oos  the stream to write the map to
+     */
+    private void writeObject (ObjectOutputStream oos) throws IOException
+    {
+        flush ();
+        oos.defaultWriteObject ();
+    } // writeObject
+
+    /********************************************************************************
+     * Reopen the map's files after it has been deserialized.
+     * @param ois  the stream to read the map from
+     */
+    private void readObject (ObjectInputStream ois)
+            throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        open (false);
+    } // readObject
+
+    /********************************************************************************
+     * The main method used for testing.
+     * @param args  the command-line arguments (args[0] gives number of keys to insert)
+     */
+    public static void main (String [] args)
+    {
+        int totalKeys = (args.length == 1) ? Integer.valueOf (args [0]) : 100000;
+
+        ExtHashMap ht = new ExtHashMap ("ExtHashMapTest", new Class [] { Integer.class, String.class }, 16);
+        for (int i = 0; i < totalKeys; i++) ht.put (new KeyType (i, "k" + i), i);
+        ht.flush ();
+
+        int found = 0;
+        for (int i = 0; i < totalKeys; i++) if (ht.get (new KeyType (i, "k" + i)) == i) found++;
+        out.println ("keys = " + ht.size () + ", found = " + found + ", buckets = " + ht.nBuckets
+                   + ", global depth = " + ht.globalDepth);
+    } // main
+
+} // ExtHashMap class
@@ -6,13 +6,21 @@
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import static java.lang.System.out;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 
 /*******************************************************************************
  * This class allows data tuples/tuples (e.g., those making up a relational table) to be stored in a random access file.  
  * This implementation requires that each tuple be packed into a fixed length byte array.
+ * The list is safe for concurrent readers and writers: all file I/O is positional
+ * (the shared file pointer is never moved), and an add only holds the list's lock
+ * long enough to reserve its row id and file extent, writing the record afterwards.
  */
 public class FileList extends AbstractList <Comparable []> implements List <Comparable []>, RandomAccess,Serializable
 {
@@ -32,9 +40,14 @@ public class FileList extends AbstractList <Comparable []> implements List <Comp
      */
     private final int recordSize;
 
-    /** Counter for the number of tuples in this list.
+    /** Counter for the number of tuples in this list (those fully written, whose
+     *  row ids are all below nRecords).
      */
-    private int nRecords = 0;
+    private volatile int nRecords = 0;
+
+    /** Counter for the row ids handed out by add (at least nRecords).
+     */
+    transient private int reserved;
     
    
 	/** Array of attribute domains: a domain may be
@@ -44,12 +57,50 @@ public class FileList extends AbstractList <Comparable []> implements List <Comp
      */
     private final Class [] domain;
     
-    private int maxRecordCount = 500;
-    /**
-     * attributeSize[0] : tuple0
-     * attributeSize[0][0] : tuple0 attribate0 Len
+    /** Size of the read buffer used for sequential scans (see iterator).
+     */
+    private static final int SCAN_BUFFER = 1 << 16;
+
+    /** Fewest rows in a partition made by splitting the spliterator, so each
+     *  partition still reads its rows in a few large chunks.
+     */
+    private static final int SPLIT_MIN = 1 << 10;
+
+    /** Granularity by which the memory-mapped region grows (see ensureMapped).
+     */
+    private static final int MAP_CHUNK = 1 << 20;
+
+    /** Whether records are served from a memory mapping of the data file
+     *  rather than through RandomAccessFile seek/read/write calls.
+     */
+    private final boolean mapped;
+
+    /** The memory mapping of the data file (only used when mapped).
+     */
+    transient private volatile MappedByteBuffer map;
+
+    /** The codec used to pack and unpack the tuples.
+     */
+    transient private TupleCodec codec;
+
+    /** The channel of the data file, used for positional reads and writes.
      */
-    private int[][] attributeSize ;   
+    transient private FileChannel channel;
+
+    /** Per-thread reusable buffer for packing a record to add or reading one to get.
+     */
+    transient private ThreadLocal <ByteBuffer> recordBuf;
+
+    /** Offset directory: offset[i] is the file position where record i starts and
+     *  offset[nRecords] is the end of the last record, so record i occupies
+     *  [offset[i], offset[i+1]).  Grown by doubling; saved along with the list.
+     */
+    private volatile long [] offset = new long [16];
+
+    /** The row ids of records whose write failed: they hold no tuple, so reads
+     *  of them fail and scans skip them.
+     */
+    transient private Set <Integer> lost;
     
     
     //len the same as RandomAccessFile
@@ -71,18 +122,62 @@ public class FileList extends AbstractList <Comparable []> implements List <Comp
      * @param _recordSize  the size of tuple in bytes.
      */
     public FileList (String _tableName , int _recordSize, Class [] _domain)
+    {
+        this (_tableName, _recordSize, _domain, false);
+    } // constructor
+
+    /***************************************************************************
+     * Construct a FileList, optionally memory-mapping its data file.  A mapped
+     * list serves get/add directly against a MappedByteBuffer (growing it in
+     * MAP_CHUNK steps), so lookups make no system calls and the pages are shared
+     * through the OS page cache with other processes that open the same table.
+     * Mapped data files are limited to 2 GB.
+     * @param _tableName   the name of the table
+     * @param _recordSize  the size of tuple in bytes.
+     * @param _domain      the domains of the attributes
+     * @param _mapped      whether to memory-map the data file
+     */
+    public FileList (String _tableName , int _recordSize, Class [] _domain, boolean _mapped)
     {
         tableName  = _tableName;
         recordSize = _recordSize;
         domain = _domain;
-        attributeSize = new int[maxRecordCount][_domain.length];
+        mapped = _mapped;
+        initBuffers ();
         try {
-            file = new RandomAccessFile (tableName + EXT, "rw");
-        } catch (FileNotFoundException ex) {
+            file    = new RandomAccessFile (tableName + EXT, "rw");
+            channel = file.getChannel ();
+            if (mapped) ensureMapped (0);
+        } catch (IOException ex) {
             file = null;
             out.println ("FileList.constructor: unable to open - " + ex);
         } // try
     } // constructor
+
+    /***************************************************************************
+     * Create the codec and the reusable record buffers for this list.
+     */
+    private void initBuffers ()
+    {
+        codec     = new TupleCodec (domain);
+        recordBuf = ThreadLocal.withInitial (() -> ByteBuffer.allocate (recordSize));
+        lost      = ConcurrentHashMap.newKeySet ();
+    } // initBuffers
+
+    /***************************************************************************
+     * Make sure the memory mapping covers at least the first size bytes of the
+     * data file, remapping it rounded up to the next MAP_CHUNK if needed.
+     * @param size  the number of bytes that must be mapped
+     */
+    private void ensureMapped (long size) throws IOException
+    {
+        if (map != null && size <= map.capacity ()) return;
+        long chunks = Math.max (1, (size + MAP_CHUNK - 1) / MAP_CHUNK);
+        if (chunks * MAP_CHUNK > Integer.MAX_VALUE) {
+            throw new IOException ("mapped data file exceeds 2 GB: " + tableName + EXT);
+        } // if
+        map = channel.map (FileChannel.MapMode.READ_WRITE, 0, chunks * MAP_CHUNK);
+    } // ensureMapped
     
     
     /**
@@ -129,36 +224,78 @@ public class FileList extends AbstractList <Comparable []> implements List <Comp
      * and writing this record to the random access file.  
      * Write the record either at the end-of-file 
      * or into a empty slot.
+     * The tuple is packed into a reusable buffer (or straight into the mapping),
+     * so adding a tuple of fixed-width domains allocates nothing.
      * 
      * @param tuple  the tuple to add
      * @return  whether the addition succeeded
      */
     public boolean add (Comparable [] tuple)
     {
-    	
-        byte [] record = pack(tuple); 
-        
-        
-        if (record.length > recordSize) {
-            out.println ("FileList.add: exceeds maximum length " + record.length);
-            return false;
+        return append (tuple) >= 0;
+    } // add
+
+    /***************************************************************************
+     * Append a tuple and return its row id (position in the list).  Concurrent
+     * appends run in parallel: the tuple is packed into a per-thread buffer
+     * first (so a tuple that cannot be packed fails before anything is
+     * reserved), the row id and the record's extent in the file are reserved
+     * under the list's lock, the record is written outside it, and the size
+     * then grows in row id order, so a reader never sees a row that is not yet
+     * written.  The row is published even if the write fails, so later appends
+     * are not held up; it is then marked lost and reads of it fail.
+     * @param tuple  the tuple to append
+     * @return  the row id of the tuple, or -1 if it could not be added
+     */
+    public int append (Comparable [] tuple)
+    {
+        int length = codec.size (tuple);
+        if (length > recordSize) {
+            out.println ("FileList.add: exceeds maximum length " + length);
+            return -1;
         } // if
+        ByteBuffer buf = recordBuf.get ();
+        buf.clear ();
+        codec.encode (tuple, buf);
+        buf.flip ();
+
+        int  rid;
+        long pos;
+        synchronized (this) {
+            rid = reserved;
+            pos = offset[rid];
+            try {
+                if (mapped) ensureMapped (pos + length);
+            } catch (IOException ex) {
+                out.println ("FileList.add: unable to map - " + ex);
+                return -1;
+            } // try
+            long [] off = offset;
+            if (rid + 1 == off.length) off = Arrays.copyOf (off, 2 * off.length);
+            off[rid + 1] = pos + length;
+            offset   = off;
+            reserved = rid + 1;
+        } // synchronized
 
+        boolean written = false;
         try {
-			file.seek(file.length());
-			file.write(record);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-          
-        this.nRecords ++;
-        return true;
-    } // add
-    
-    
-    
-    
+            if (mapped) {
+                ByteBuffer slot = map.duplicate ();
+                slot.position ((int) pos);
+                slot.put (buf);
+            } else {
+                while (buf.hasRemaining ()) channel.write (buf, pos + buf.position ());
+            } // if
+            written = true;
+        } catch (IOException ex) {
+            out.println ("FileList.add: unable to write row " + rid + " - " + ex);
+        } finally {
+            if (! written) lost.add (rid);
+            while (nRecords != rid) Thread.yield ();                      // publish in row id order
+            nRecords = rid + 1;
+        } // try
+        return written ? rid : -1;
+    } // append
     
     /**
      * 
@@ -169,202 +306,54 @@ public class FileList extends AbstractList <Comparable []> implements List <Comp
     * @throws
      */
     public byte[] pack(Comparable [] tuple){
-    	byte[] result = null;
-    	
-    	ByteArrayOutputStream boutput = new ByteArrayOutputStream();
-    	DataOutputStream doutput = new DataOutputStream(boutput);
-    	
-    	//doutput.writeInt(i);
-    	//byte[] buf = boutput.toByteArray();
-    	
-    	for(int i = 0; i<tuple.length;i++){
-    		boutput.reset(); //clean the boutput
-    		byte[] buf = null;
-    		try {
-    			//System.out.println(tuple[i].getClass().getName());
-	    		if(tuple[i] instanceof Long ){
-	    			doutput.writeLong((long) tuple[i]);
-	        	}else if(tuple[i] instanceof Integer ){
-	        		//System.out.println("Integer");
-	        		doutput.writeInt((int) tuple[i]);
-	        		//System.out.println(buf.length);
-	        	}else if(tuple[i] instanceof Short ){
-	        		doutput.writeShort((Short)tuple[i]);
-	        	}else if(tuple[i] instanceof Byte ){
-	        		doutput.writeByte((Byte)tuple[i]);
-	        	}else if(tuple[i] instanceof Double  || tuple[i] instanceof Float ){
-	        		doutput.writeDouble((Double)tuple[i]);
-	        	}else if(tuple[i] instanceof Character){
-	        		doutput.writeChar((Character)tuple[i]);
-	        	}else if(tuple[i] instanceof String){
-					//System.out.println(tuple[i]);					
-	        		doutput.writeUTF((String) tuple[i]);
-	        	}
-	    		
-	    		/*
-	    		 * else if(domain[i].equals(Float.class) ){
-	        		doutput.writeFloat(new Float(tuple[i]));
-	        	}
-	    		 */
-	    		buf = boutput.toByteArray();
-        		attributeSize[nRecords][i] = buf.length;
-    		} catch (IOException e) {
-				e.printStackTrace();
-			}
-    		result = byteMerger(result,buf);
-    		//System.out.println(tuple[i]);
-    		//System.out.println(result.length);
-        	
-    	}
-    	/*
-    	System.out.println("===========");
-    	for(int i=0;i<attributeSize[nRecords].length;i++){
-    		System.out.println(attributeSize[nRecords][i]);
-    	}
-    	*/
-    	//System.out.println("==="+result.length);
-    	return result;
+    	ByteBuffer buf = ByteBuffer.allocate(codec.size(tuple));
+    	codec.encode(tuple, buf);
+    	return buf.array();
     }
-    
-    /**
-     * 
-    * @author Yunyun
-    * @Description: merger two byte[]
-    * @param @param byte_1
-    * @param @param byte_2
-    * @return byte[]    
-     */
-    public  byte[] byteMerger(byte[] byte_1, byte[] byte_2){
-    	
-    	if(byte_1 == null && byte_2 ==null){
-    		return null;
-    	}else if(byte_1 == null){
-    		return byte_2;
-    	}else if(byte_2 == null){
-    		return byte_1;
-    	}
-    	
-        byte[] byte_3 = new byte[byte_1.length+byte_2.length];  
-        System.arraycopy(byte_1, 0, byte_3, 0, byte_1.length);  
-        System.arraycopy(byte_2, 0, byte_3, byte_1.length, byte_2.length);  
-        return byte_3;  
-    }  
 
     /**
      * 
     * @author Yunyun
     * @Description: recover byte[] -> Comparable []
-    * @param  i  
+    * @param  record  the packed record  
     * @return Comparable[]    
     * @throws
      */
-    public  Comparable [] unpack(byte[] result,int index){
-    	
-    	//System.out.println("===========");
-    	Comparable [] tupleTemp  = new Comparable[domain.length];
-    	byte[] buf  = null;
-    	ByteArrayInputStream bintput  = null;
-    	DataInputStream dintput ;
-    	//int i = dintput.readInt();
-    	int resultIndex = 0;
-    	for(int i = 0;i<domain.length;i++){
-    		
-    		try{
-        		buf = new byte[attributeSize[index][i]];
-        		System.arraycopy(result, resultIndex , buf, 0, buf.length);
-        		resultIndex = resultIndex +  buf.length;
-        		bintput = new ByteArrayInputStream(buf);
-        		dintput = new DataInputStream(bintput);
-        				
-        		
-        		if(domain[i].equals(Long.class) ){
-        			long temp = dintput.readLong();
-        			tupleTemp[i] = temp;
-            	}else if(domain[i].equals(Integer.class) ){
-            		int temp = dintput.readInt();
-            		tupleTemp[i] = temp;
-            	}else if(domain[i].equals(Short.class) ){
-            		short temp = dintput.readShort();
-            		tupleTemp[i] = temp;
-            	}else if(domain[i].equals(Byte.class) ){
-            		byte temp = dintput.readByte();
-            		tupleTemp[i] = temp;
-            	}else if(domain[i].equals(Float.class)){
-            		//System.out.println("Float");
-            		double temp = dintput.readDouble();
-            		//System.out.println(temp);
-            		tupleTemp[i] = temp;
-            	}else if(domain[i].equals(Double.class)){
-            		double temp = dintput.readDouble();
-            		tupleTemp[i] = temp;
-            	}else if(domain[i].equals(Character.class)){
-            		char temp = dintput.readChar();
-            		tupleTemp[i] = temp;
-            	}else if(domain[i].equals(String.class)){
-            		//System.out.println("String");
-            		String temp = dintput.readUTF();
-            		tupleTemp[i] = temp;
-            	}
-        			
-    		}catch(IOException e) {
-				e.printStackTrace();
-			}	
-    	}
-    	
-    	/*
-    	//display
-    	for(int i=0;i<tupleTemp.length;i++){
-    		System.out.println(tupleTemp[i]);
-    	}
-    	*/
-    	return tupleTemp;
+    public  Comparable [] unpack(byte[] record){
+    	return codec.decode(ByteBuffer.wrap(record), 0);
     }
 
     /***************************************************************************
-     * Get the ith tuple by seeking to the correct file position and reading the
-     * record.
-     * @param i  the index of the tuple to get
+     * Get the ith tuple by reading the record at its file position (from the
+     * offset directory) with a single positional read into a per-thread buffer.
+     * @param index  the index of the tuple to get
      * @return  the ith tuple
      */
     public Comparable [] get (int index)
     {
-    	//0.check the index
-    	if(index + 1 > nRecords){
-    		System.out.println("Out of Index");
-    		return null;
-    	}
-    	
-    	//1.compute the this Record Size
-    	int thisRecordSize  = 0 ;
-    	for(int i=0;i<domain.length;i++){
-    		thisRecordSize = thisRecordSize + attributeSize[index][i];
-    	}
-    	
-    	//2.cumpute the startIndex
-    	int startIndex = 0;
-    	for(int i = 0; i<index;i++){
-    		for(int j=0;j<domain.length;j++){
-    			startIndex = startIndex + attributeSize[i][j];
-    		}
-    	}
-    	
-    	//System.out.println(thisRecordSize);
-        //System.out.println(startIndex);
+        if (index < 0 || index >= nRecords) throw new IndexOutOfBoundsException ("FileList.get: " + index);
+        if (! lost.isEmpty () && lost.contains (index)) {
+            throw new UncheckedIOException (new IOException ("FileList.get: record " + index + " was never written"));
+        } // if
 
-    	
-        byte [] record = new byte[thisRecordSize];
+        //a mapped list decodes in place, with no read call or record buffer
+        if (mapped) return codec.decode (map, (int) offset[index]);
+
+        //look up the record's extent in the offset directory and read it into the reusable buffer
+        long []    off = offset;
+        ByteBuffer buf = recordBuf.get ();
+        buf.clear ();
+        buf.limit ((int) (off[index + 1] - off[index]));
         try {
-        	this.file.seek(startIndex);
-			this.file.read(record, 0, thisRecordSize);
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-                
-        
-        Comparable [] tuple = unpack(record,index); 
-
-        return tuple;   // FIX: table.unpack (record);
+            while (buf.hasRemaining ()) {
+                if (channel.read (buf, off[index] + buf.position ()) < 0) {
+                    throw new EOFException ("FileList.get: record " + index + " is cut short");
+                } // if
+            } // while
+        } catch (IOException ex) {
+            throw new UncheckedIOException (ex);
+        } // try
+        return codec.decode (buf, 0);
     } // get
     
     
@@ -376,6 +365,175 @@ public class FileList extends AbstractList <Comparable []> implements List <Comp
 	}
 
 
+    /***************************************************************************
+     * Return an iterator that scans the tuples in order.  Unless the list is
+     * mapped, rather than calling get (i) per tuple, it reads the data file sequentially in large chunks and
+     * decodes the records back-to-back.
+     * @return  a forward iterator over the tuples
+     */
+    @Override
+    public Iterator <Comparable []> iterator ()
+    {
+        return new RecordIterator (0, nRecords);
+    } // iterator
+
+    /***************************************************************************
+     * Return an iterator over the tuples in batches of up to Batch.SIZE rows,
+     * decoded straight into the batch's column vectors.  The same batch object
+     * is refilled by each call to next.
+     * @return  a forward iterator over the batches
+     */
+    public Iterator <Batch> batches ()
+    {
+        return new Iterator <Batch> () {
+            private final RecordIterator it    = new RecordIterator (0, nRecords);
+            private final Batch          batch = new Batch (domain);
+
+            public boolean hasNext () { return it.hasNext (); }
+
+            public Batch next ()
+            {
+                if (! it.hasNext ()) throw new NoSuchElementException ();
+                batch.clear ();
+                while (! batch.isFull () && it.hasNext ()) it.nextInto (batch);
+                return batch;
+            } // next
+        };
+    } // batches
+
+    /***************************************************************************
+     * Return a spliterator over the tuples.  It splits by halving its range of
+     * row ids (down to SPLIT_MIN rows), and each partition scans its own range
+     * with chunked reads, so a parallel stream over the list reads the file
+     * in large sequential pieces rather than one get per tuple.
+     * @return  an ordered, sized spliterator over the tuples
+     */
+    @Override
+    public Spliterator <Comparable []> spliterator ()
+    {
+        return new RangeSpliterator (0, nRecords);
+    } // spliterator
+
+    /***************************************************************************
+     * This inner class splits the rows [lo, hi) of the list into partitions.
+     * Once it starts advancing it no longer splits.
+     */
+    private class RangeSpliterator
+            implements Spliterator <Comparable []>
+    {
+        private int                      lo;                           // next row to return
+        private final int                hi;                           // end of the range
+        private Iterator <Comparable []> it;                           // scan of [lo, hi) once started
+
+        RangeSpliterator (int _lo, int _hi) { lo = _lo; hi = _hi; }
+
+        public Spliterator <Comparable []> trySplit ()
+        {
+            if (it != null || hi - lo < 2 * SPLIT_MIN) return null;
+            int mid = (lo + hi) >>> 1;
+            Spliterator <Comparable []> left = new RangeSpliterator (lo, mid);
+            lo = mid;
+            return left;
+        } // trySplit
+
+        public boolean tryAdvance (Consumer <? super Comparable []> action)
+        {
+            if (it == null) it = new RecordIterator (lo, hi);
+            if (! it.hasNext ()) { lo = hi; return false; }
+            action.accept (it.next ());
+            lo++;
+            return true;
+        } // tryAdvance
+
+        public long estimateSize () { return hi - lo; }
+
+        public int characteristics ()
+        {
+            int sized = lost.isEmpty () ? Spliterator.SIZED | Spliterator.SUBSIZED : 0;  // lost rows are skipped
+            return Spliterator.ORDERED | Spliterator.NONNULL | sized;
+        } // characteristics
+
+    } // RangeSpliterator inner class
+
+    /***************************************************************************
+     * This inner class scans a range of rows of the data file front to back.  It refills a large
+     * buffer with positional channel reads (which leave the shared file pointer
+     * alone), so a full scan costs one read per SCAN_BUFFER bytes, and decodes
+     * each record in place.  A mapped list is decoded straight from the mapping.
+     * Lost rows (see append) are skipped.
+     */
+    private class RecordIterator
+            implements Iterator <Comparable []>
+    {
+        private final int        end;                                  // end of the rows to scan
+        private final long []    off   = offset;                       // offset directory covering them
+        private final ByteBuffer buf   = ByteBuffer.allocate (mapped ? 0 : Math.max (SCAN_BUFFER, recordSize));
+        private long             start = 0;                            // file position of buf[0]
+        private int              next;                                 // index of the next record
+
+        RecordIterator (int from, int to) { next = from; end = to; buf.limit (0); }
+
+        public boolean hasNext ()
+        {
+            while (next < end && ! lost.isEmpty () && lost.contains (next)) next++;
+            return next < end;
+        } // hasNext
+
+        public Comparable [] next ()
+        {
+            if (! hasNext ()) throw new NoSuchElementException ();
+            if (mapped) return codec.decode (map, (int) off[next++]);
+            if (off[next + 1] > start + buf.limit ()) fill (off[next]);
+            return codec.decode (buf, (int) (off[next++] - start));
+        } // next
+
+        /** Decode the next record into the next row of batch. */
+        void nextInto (Batch batch)
+        {
+            if (! hasNext ()) throw new NoSuchElementException ();
+            if (mapped) { codec.decode (map, (int) off[next++], batch); return; }
+            if (off[next + 1] > start + buf.limit ()) fill (off[next]);
+            codec.decode (buf, (int) (off[next++] - start), batch);
+        } // nextInto
+
+        private void fill (long pos)
+        {
+            start = pos;
+            buf.clear ();
+            buf.limit ((int) Math.min (buf.capacity (), off[end] - pos));
+            try {
+                while (buf.hasRemaining ()) {
+                    if (channel.read (buf, start + buf.position ()) < 0) break;
+                } // while
+            } catch (IOException ex) {
+                throw new UncheckedIOException (ex);
+            } // try
+            buf.flip ();
+        } // fill
+
+    } // RecordIterator inner class
+
+	/***************************************************************************
+     * Reopen the data file after this list has been deserialized (e.g., by
+     * Table.load).  The offset directory is restored with the rest of the list.
+     * @param ois  the stream to read the list from
+     */
+    private void readObject (ObjectInputStream ois)
+            throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        initBuffers ();
+        reserved = nRecords;
+        try {
+            file    = new RandomAccessFile (tableName + EXT, "rw");
+            channel = file.getChannel ();
+            if (mapped) ensureMapped (offset[nRecords]);
+        } catch (IOException ex) {
+            file = null;
+            out.println ("FileList.readObject: unable to open - " + ex);
+        } // try
+    } // readObject
+
 	/***************************************************************************
      * Return the size of the file list in terms of the number of tuples/records.
      * @return  the number of tuples
@@ -385,6 +543,16 @@ public class FileList extends AbstractList <Comparable []> implements List <Comp
         return nRecords;
     } // size
 
+    /***************************************************************************
+     * Close and delete the data file (e.g., of a temporary run of an external
+     * sort).
+     */
+    public void delete ()
+    {
+        close ();
+        new File (tableName + EXT).delete ();
+    } // delete
+
     /***************************************************************************
      * Close the file.
      */
@@ -0,0 +1,335 @@
+/************************************************************************************
+ * @file KeyArray.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.Serializable;
+
+/************************************************************************************
+ * This class holds the keys of a B+Tree node.  The layout is chosen from the key
+ * type (see of): Integer and Long keys are kept in primitive arrays, String keys
+ * are prefix compressed (the prefix shared by all the keys of the node is stored
+ * once), and other keys are kept as objects.  A KeyType key with a single Integer,
+ * Long or String attribute (as Table uses for such primary keys) gets the layout
+ * of that attribute.  Every layout finds keys by binary search.
+ */
+abstract class KeyArray <K extends Comparable <K>>
+         implements Serializable
+{
+    /********************************************************************************
+     * Make a key array suited to the given key type.
+     * @param classK  the class for keys (K)
+     * @param p       the capacity (number of keys)
+     * @return  an empty key array
+     */
+    static <K extends Comparable <K>> KeyArray <K> of (Class <K> classK, int p)
+    {
+        return of (classK, null, p);
+    } // of
+
+    /********************************************************************************
+     * Make a key array suited to the given key type, where KeyType keys made up of a
+     * single attribute of domain keyDomain are laid out as that attribute.
+     * @param classK     the class for keys (K)
+     * @param keyDomain  the domain of the single attribute of a KeyType key (null if
+     *                   K is not KeyType or the keys have several attributes)
+     * @param p          the capacity (number of keys)
+     * @return  an empty key array
+     */
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable <K>> KeyArray <K> of (Class <K> classK, Class <?> keyDomain, int p)
+    {
+        if (classK == KeyType.class) {
+            if (keyDomain == Integer.class) return (KeyArray <K>) new SingleKeys <> (Integer.class, p);
+            if (keyDomain == Long.class)    return (KeyArray <K>) new SingleKeys <> (Long.class, p);
+            if (keyDomain == String.class)  return (KeyArray <K>) new SingleKeys <> (String.class, p);
+        } // if
+        if (classK == Integer.class) return (KeyArray <K>) new IntKeys (p);
+        if (classK == Long.class)    return (KeyArray <K>) new LongKeys (p);
+        if (classK == String.class)  return (KeyArray <K>) new StringKeys (p);
+        return new ObjectKeys <> (p);
+    } // of
+
+    /** Return the key at position i. */
+    abstract K get (int i);
+
+    /** Store key k at position i. */
+    abstract void set (int i, K k);
+
+    /** Compare key k with the key at position i (as k.compareTo (get (i))). */
+    abstract int compare (K k, int i);
+
+    /** Release the key at position i (so it may be garbage collected). */
+    void clear (int i) { }
+
+    /********************************************************************************
+     * Find the position of the first of the n keys that is >= k.
+     * @param k  the key to look for
+     * @param n  the number of active keys
+     * @return  the position of the first key >= k, or n if there is none
+     */
+    int search (K k, int n)
+    {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare (k, mid) > 0) lo = mid + 1; else hi = mid;
+        } // while
+        return lo;
+    } // search
+
+    /********************************************************************************
+     * Copy len keys starting at position from to position to of the key array dst
+     * (which may be this array; overlapping ranges are handled).
+     * @param from  the first position to copy
+     * @param dst   the key array to copy to
+     * @param to    the first position to copy to
+     * @param len   the number of keys to copy
+     */
+    void copy (int from, KeyArray <K> dst, int to, int len)
+    {
+        if (dst == this && to > from) {
+            for (int j = len - 1; j >= 0; j--) dst.set (to + j, get (from + j));
+        } else {
+            for (int j = 0; j < len; j++) dst.set (to + j, get (from + j));
+        } // if
+    } // copy
+
+    /********************************************************************************
+     * Keys stored as objects.
+     */
+    private static class ObjectKeys <K extends Comparable <K>>
+            extends KeyArray <K>
+    {
+        private final Object [] key;
+
+        ObjectKeys (int p) { key = new Object [p]; }
+
+        @SuppressWarnings("unchecked")
+        K get (int i) { return (K) key [i]; }
+
+        void set (int i, K k) { key [i] = k; }
+
+        @SuppressWarnings("unchecked")
+        int compare (K k, int i) { return k.compareTo ((K) key [i]); }
+
+        void clear (int i) { key [i] = null; }
+
+        void copy (int from, KeyArray <K> dst, int to, int len)
+        {
+            if (dst instanceof ObjectKeys) System.arraycopy (key, from, ((ObjectKeys <K>) dst).key, to, len);
+            else                           super.copy (from, dst, to, len);
+        } // copy
+
+    } // ObjectKeys class
+
+    /********************************************************************************
+     * Integer keys stored in an int array.
+     */
+    private static class IntKeys
+            extends KeyArray <Integer>
+    {
+        private final int [] key;
+
+        IntKeys (int p) { key = new int [p]; }
+
+        Integer get (int i) { return key [i]; }
+
+        void set (int i, Integer k) { key [i] = k; }
+
+        int compare (Integer k, int i) { return Integer.compare (k, key [i]); }
+
+        int search (Integer k, int n)
+        {
+            int x = k, lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (x > key [mid]) lo = mid + 1; else hi = mid;
+            } // while
+            return lo;
+        } // search
+
+        void copy (int from, KeyArray <Integer> dst, int to, int len)
+        {
+            System.arraycopy (key, from, ((IntKeys) dst).key, to, len);
+        } // copy
+
+    } // IntKeys class
+
+    /********************************************************************************
+     * Long keys stored in a long array.
+     */
+    private static class LongKeys
+            extends KeyArray <Long>
+    {
+        private final long [] key;
+
+        LongKeys (int p) { key = new long [p]; }
+
+        Long get (int i) { return key [i]; }
+
+        void set (int i, Long k) { key [i] = k; }
+
+        int compare (Long k, int i) { return Long.compare (k, key [i]); }
+
+        int search (Long k, int n)
+        {
+            long x = k;
+            int  lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (x > key [mid]) lo = mid + 1; else hi = mid;
+            } // while
+            return lo;
+        } // search
+
+        void copy (int from, KeyArray <Long> dst, int to, int len)
+        {
+            System.arraycopy (key, from, ((LongKeys) dst).key, to, len);
+        } // copy
+
+    } // LongKeys class
+
+    /********************************************************************************
+     * String keys stored as a prefix shared by every key of the node plus the tail
+     * of each key.  The prefix starts as the first key stored and only shrinks (to
+     * the part a new key shares); its chars are never changed, so key i is the first
+     * skip[i] chars of the prefix array followed by tail[i], and a shrink touches no
+     * stored key.  Comparisons match the prefix once and then compare the rest of
+     * each key in place; a full key is built only when get returns it.
+     */
+    private static class StringKeys
+            extends KeyArray <String>
+    {
+        private static final char [] EMPTY = new char [0];
+
+        private char []         prefix;                         // chars of the first key stored (null while empty)
+        private int             plen;                           // length of the prefix shared by all keys
+        private final int []    skip;                           // number of prefix chars that start key i
+        private final char [][] tail;                           // the rest of key i (null if none)
+
+        StringKeys (int p) { skip = new int [p]; tail = new char [p][]; }
+
+        String get (int i)
+        {
+            if (tail [i] == null) return null;
+            char [] k = new char [skip [i] + tail [i].length];
+            System.arraycopy (prefix, 0, k, 0, skip [i]);
+            System.arraycopy (tail [i], 0, k, skip [i], tail [i].length);
+            return new String (k);
+        } // get
+
+        void set (int i, String k)
+        {
+            if (k == null) { tail [i] = null; return; }
+            if (prefix == null) { prefix = k.toCharArray (); plen = prefix.length; }
+            int m = 0;
+            while (m < plen && m < k.length () && prefix [m] == k.charAt (m)) m++;
+            plen    = m;                                        // shrink the prefix to fit k
+            skip [i] = m;
+            tail [i] = (m == k.length ()) ? EMPTY : k.substring (m).toCharArray ();
+        } // set
+
+        void clear (int i) { tail [i] = null; }
+
+        int compare (String k, int i)
+        {
+            int c = comparePrefix (k);
+            return (c != 0) ? c : compareRest (k, i);
+        } // compare
+
+        int search (String k, int n)
+        {
+            if (n == 0) return 0;
+            int c = comparePrefix (k);
+            if (c != 0) return (c < 0) ? 0 : n;                 // k is below or above every key
+            int lo = 0, hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compareRest (k, mid) > 0) lo = mid + 1; else hi = mid;
+            } // while
+            return lo;
+        } // search
+
+        /** Compare k with the prefix: 0 if k starts with it, else the sign of k vs prefix. */
+        private int comparePrefix (String k)
+        {
+            for (int j = 0; j < plen; j++) {
+                if (j == k.length ()) return -1;
+                int d = k.charAt (j) - prefix [j];
+                if (d != 0) return d;
+            } // for
+            return 0;
+        } // comparePrefix
+
+        /** Compare the part of k after the prefix with the same part of key i. */
+        private int compareRest (String k, int i)
+        {
+            int     s  = skip [i], kl = k.length (), il = s + tail [i].length;
+            char [] t  = tail [i];
+            for (int j = plen, m = Math.min (kl, il); j < m; j++) {
+                int d = k.charAt (j) - ((j < s) ? prefix [j] : t [j - s]);
+                if (d != 0) return d;
+            } // for
+            return kl - il;
+        } // compareRest
+
+        void copy (int from, KeyArray <String> dst, int to, int len)
+        {
+            StringKeys d = (StringKeys) dst;
+            if (d != this && d.prefix != null && d.prefix != prefix) {          // different prefixes
+                super.copy (from, dst, to, len);
+                return;
+            } // if
+            if (d != this && d.prefix == null) { d.prefix = prefix; d.plen = plen; }
+            else if (d != this)                d.plen = Math.min (d.plen, plen);
+            System.arraycopy (skip, from, d.skip, to, len);
+            System.arraycopy (tail, from, d.tail, to, len);
+        } // copy
+
+    } // StringKeys class
+
+    /********************************************************************************
+     * KeyType keys made up of a single attribute of type T, stored in the layout for
+     * T.  The attribute is taken out of the key being looked up once per search, and
+     * a KeyType is built only when get returns a key.
+     */
+    private static class SingleKeys <T extends Comparable <T>>
+            extends KeyArray <KeyType>
+    {
+        private final Class <T>     type;                       // domain of the attribute
+        private final KeyArray <T>  value;                      // the attribute values
+
+        SingleKeys (Class <T> _type, int p) { type = _type; value = of (_type, p); }
+
+        /** Return the attribute of key k. */
+        private T attr (KeyType k) { return type.cast (k.getKey () [0]); }
+
+        KeyType get (int i)
+        {
+            T v = value.get (i);
+            return (v == null) ? null : new KeyType (v);
+        } // get
+
+        void set (int i, KeyType k)
+        {
+            if (k == null) value.clear (i);
+            else           value.set (i, attr (k));
+        } // set
+
+        int compare (KeyType k, int i) { return value.compare (attr (k), i); }
+
+        int search (KeyType k, int n) { return value.search (attr (k), n); }
+
+        void clear (int i) { value.clear (i); }
+
+        @SuppressWarnings("unchecked")
+        void copy (int from, KeyArray <KeyType> dst, int to, int len)
+        {
+            value.copy (from, ((SingleKeys <T>) dst).value, to, len);
+        } // copy
+
+    } // SingleKeys class
+
+} // KeyArray class
@@ -78,6 +78,15 @@ public class KeyType
         return sum;
     } // hashCode
 
+    /*************************************************************************************
+     * Return the attribute values making up the key.
+     * @return  the array of key values
+     */
+    public Comparable [] getKey ()
+    {
+        return key;
+    } // getKey
+
     /*************************************************************************************
      * Convert the key to a string.
      * @return  the string representation of the key
@@ -0,0 +1,331 @@
+/************************************************************************************
+ * @file LinHashMap.java
+ *
+ * @author  John Miller
+ */
+
+import java.io.*;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/************************************************************************************
+ * The LinHashMap class provides hash maps that use the Linear Hashing algorithm.
+ * A hash table is created that is an array of buckets, each holding a few slots
+ * and chaining to overflow buckets when full.  The table grows one bucket at a
+ * time: whenever the load passes a threshold, the bucket at the split pointer is
+ * split into itself and a new bucket at the end of the table, so there is never
+ * a pause to rehash the whole table.
+ */
+public class LinHashMap <K, V>
+       extends AbstractMap <K, V>
+       implements Serializable, Cloneable, Map <K, V>
+{
+    /** The number of slots (for key-value pairs) per bucket.
+     */
+    private static final int SLOTS = 4;
+
+    /** The default number of buckets the hash table starts with.
+     */
+    public static final int INIT_SIZE = 4;
+
+    /** The average number of keys per slot above which a bucket is split.
+     */
+    private static final double LOAD = 0.75;
+
+    /********************************************************************************
+     * This inner class defines buckets that are stored in the hash table.  A bucket
+     * chains to an overflow bucket once its slots are full.
+     */
+    private static class Bucket
+            implements Serializable
+    {
+        int      nKeys;                                    // number of active keys
+        Object[] key   = new Object [SLOTS];               // array of keys
+        Object[] value = new Object [SLOTS];               // array of values
+        Bucket   next;                                     // overflow bucket (null if none)
+    } // Bucket inner class
+
+    /** The number of buckets the hash table starts with.
+     */
+    private final int initSize;
+
+    /** The list of buckets making up the hash table.
+     */
+    private final List <Bucket> hTable;
+
+    /** The modulus for low resolution hashing
+     */
+    private int mod1;
+
+    /** The modulus for high resolution hashing
+     */
+    private int mod2;
+
+    /** The index of the next bucket to split.
+     */
+    private int split = 0;
+
+    /** The counter for the number buckets accessed (for performance testing)
+     */
+    private int count = 0;
+
+    /** The counter for the total number of keys in the LinHash Map
+     */
+    private int keyCount = 0;
+
+    /********************************************************************************
+     * Construct an empty hash table with the default number of buckets.
+     */
+    public LinHashMap ()
+    {
+        this (INIT_SIZE);
+    } // constructor
+
+    /********************************************************************************
+     * Construct an empty hash table.
+     * @param _initSize  the initial number of buckets (at least 1)
+     */
+    public LinHashMap (int _initSize)
+    {
+        if (_initSize < 1) throw new IllegalArgumentException ("LinHashMap: need at least one bucket");
+        initSize = _initSize;
+        hTable   = new ArrayList <> ();
+        clear ();
+    } // constructor
+
+    /********************************************************************************
+     * Return a set containing all the entries as pairs of keys and values.  The set
+     * is a view that walks the buckets and their chains; entries come in no
+     * particular order.
+     * @return  the set view of the map
+     */
+    public Set <Map.Entry <K, V>> entrySet ()
+    {
+        return new AbstractSet <Map.Entry <K, V>> () {
+            public Iterator <Map.Entry <K, V>> iterator ()
+            {
+                return new Iterator <Map.Entry <K, V>> () {
+                    int    i = 0;                          // index of the current bucket
+                    Bucket b = hTable.get (0);             // bucket in the current chain
+                    int    j = 0;                          // slot within b
+                    { advance (); }
+
+                    /** Move to the next occupied slot (b is null at the end). */
+                    void advance ()
+                    {
+                        while (b != null && j >= b.nKeys) {
+                            b = b.next; j = 0;
+                            if (b == null && ++i < hTable.size ()) b = hTable.get (i);
+                        } // while
+                    } // advance
+
+                    public boolean hasNext () { return b != null; }
+
+                    @SuppressWarnings("unchecked")
+                    public Map.Entry <K, V> next ()
+                    {
+                        if (b == null) throw new NoSuchElementException ();
+                        Map.Entry <K, V> e = new AbstractMap.SimpleImmutableEntry <> ((K) b.key [j], (V) b.value [j]);
+                        j++;
+                        advance ();
+                        return e;
+                    } // next
+                };
+            } // iterator
+
+            public int size () { return keyCount; }
+        };
+    } // entrySet
+
+    /********************************************************************************
+     * Given the key, look up the value in the hash table.
+     * @param key  the key used for look up
+     * @return  the value associated with the key
+     */
+    @SuppressWarnings("unchecked")
+    public V get (Object key)
+    {
+        for (Bucket b = hTable.get (h (key)); b != null; b = b.next) {
+            count++;
+            for (int j = 0; j < b.nKeys; j++) if (key.equals (b.key [j])) return (V) b.value [j];
+        } // for
+        return null;
+    } // get
+
+    /********************************************************************************
+     * Put the key-value pair in the hash table.  If the load is then too high,
+     * split the bucket at the split pointer.
+     * @param key    the key to insert
+     * @param value  the value to insert
+     * @return  the old value associated with the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put (K key, V value)
+    {
+        if (key == null) throw new NullPointerException ("LinHashMap: null key");
+        Bucket b = hTable.get (h (key));
+        for (Bucket c = b; c != null; c = c.next) {
+            for (int j = 0; j < c.nKeys; j++) {
+                if (key.equals (c.key [j])) {
+                    V old = (V) c.value [j];
+                    c.value [j] = value;
+                    return old;
+                } // if
+            } // for
+        } // for
+
+        add (b, key, value);
+        keyCount++;
+        if (keyCount > LOAD * SLOTS * hTable.size ()) split ();
+        return null;
+    } // put
+
+    /********************************************************************************
+     * Determine whether the hash table holds the given key.
+     * @param key  the key to look for
+     * @return  whether the key is in the map
+     */
+    public boolean containsKey (Object key)
+    {
+        return get (key) != null;
+    } // containsKey
+
+    /********************************************************************************
+     * Remove all the entries, returning the table to its initial number of buckets.
+     */
+    public void clear ()
+    {
+        hTable.clear ();
+        for (int i = 0; i < initSize; i++) hTable.add (new Bucket ());
+        mod1     = initSize;
+        mod2     = 2 * mod1;
+        split    = 0;
+        keyCount = 0;
+    } // clear
+
+    /********************************************************************************
+     * Return the size (number of entries) in the hash table.
+     * @return  the size of the hash table
+     */
+    public int size ()
+    {
+        return keyCount;
+    } // size
+
+    /********************************************************************************
+     * Split the bucket at the split pointer: its entries (and those of its chain)
+     * are rehashed with the high resolution modulus into itself and a new bucket
+     * appended to the table.  Once every bucket of the round has been split, the
+     * moduli double and the split pointer returns to 0.
+     */
+    private void split ()
+    {
+        Bucket old = hTable.get (split);
+        Bucket lo  = new Bucket (), hi = new Bucket ();
+        for (Bucket b = old; b != null; b = b.next) {
+            for (int j = 0; j < b.nKeys; j++) {
+                add (hash (b.key [j], mod2) == split ? lo : hi, b.key [j], b.value [j]);
+            } // for
+        } // for
+        hTable.set (split, lo);
+        hTable.add (hi);
+
+        if (++split == mod1) {
+            split = 0;
+            mod1  = mod2;
+            mod2  = 2 * mod1;
+        } // if
+    } // split
+
+    /********************************************************************************
+     * Add the key-value pair to the first bucket in the chain starting at b that has
+     * a free slot, extending the chain with an overflow bucket if all are full.
+     * @param b      the first bucket of the chain
+     * @param key    the key to add
+     * @param value  the value to add
+     */
+    private static void add (Bucket b, Object key, Object value)
+    {
+        while (b.nKeys == SLOTS) {
+            if (b.next == null) b.next = new Bucket ();
+            b = b.next;
+        } // while
+        b.key [b.nKeys]   = key;
+        b.value [b.nKeys] = value;
+        b.nKeys++;
+    } // add
+
+    /********************************************************************************
+     * Hash the key to a bucket, using the high resolution modulus for buckets that
+     * have already been split in this round.
+     * @param key  the key to hash
+     * @return  the location of the bucket chain containing the key-value pair
+     */
+    private int h (Object key)
+    {
+        int i = hash (key, mod1);
+        return (i < split) ? hash (key, mod2) : i;
+    } // h
+
+    /********************************************************************************
+     * Hash the key using the given modulus.  The bits of the hash code are spread
+     * first, so keys whose hash codes differ only in the high bits still scatter.
+     * @param key  the key to hash
+     * @param mod  the modulus
+     * @return  the bucket number in 0 .. mod-1
+     */
+    private static int hash (Object key, int mod)
+    {
+        int h = key.hashCode ();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % mod;
+    } // hash
+
+    /********************************************************************************
+     * Print the hash table.
+     */
+    private void print ()
+    {
+        out.println ("Hash Table (Linear Hashing)");
+        out.println ("-------------------------------------------");
+        for (int i = 0; i < hTable.size (); i++) {
+            out.print (i + ":");
+            for (Bucket b = hTable.get (i); b != null; b = b.next) {
+                out.print (" [");
+                for (int j = 0; j < b.nKeys; j++) out.print (" " + b.key [j]);
+                out.print (" ]");
+            } // for
+            out.println ();
+        } // for
+        out.println ("-------------------------------------------");
+    } // print
+
+    /********************************************************************************
+     * The main method used for testing.
+     * @param args  the command-line arguments (args[0] gives number of keys to insert)
+     */
+    public static void main (String [] args)
+    {
+        int totalKeys    = 30;
+        boolean RANDOMLY = false;
+
+        LinHashMap <Integer, Integer> ht = new LinHashMap <> ();
+        if (args.length == 1) totalKeys = Integer.valueOf (args [0]);
+
+        if (RANDOMLY) {
+            Random rng = new Random ();
+            for (int i = 1; i <= totalKeys; i += 2) ht.put (rng.nextInt (2 * totalKeys), i * i);
+        } else {
+            for (int i = 1; i <= totalKeys; i += 2) ht.put (i, i * i);
+        } // if
+
+        ht.print ();
+        for (int i = 0; i <= totalKeys; i++) {
+            out.println ("key = " + i + " value = " + ht.get (i));
+        } // for
+        out.println ("-------------------------------------------");
+        out.println ("Average number of buckets accessed = " + ht.count / (double) totalKeys);
+    } // main
+
+} // LinHashMap class
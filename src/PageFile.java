@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * @file  PageFile.java
+ *
+ * @author   John Miller
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static java.lang.System.out;
+
+/*******************************************************************************
+ * This class stores data tuples in a file of fixed-size slotted pages that is
+ * accessed through a buffer pool, so that frequently used pages stay in memory
+ * while tables larger than memory still work.  Each page is laid out as
+ *
+ *     [ nSlots | freeEnd | slot 0 | slot 1 | ... free space ... | records ]
+ *
+ * where slot i holds the offset and length of record i within the page, and
+ * records are packed from the end of the page towards the slot directory.
+ * As the buffer pool hands out one frame at a time, add and get are synchronized.
+ */
+public class PageFile extends AbstractList <Comparable []> implements List <Comparable []>, RandomAccess, Serializable
+{
+    /** File extension for page files.
+     */
+    private static final String EXT = ".pag";
+
+    /** The default number of frames in the buffer pool.
+     */
+    public static final int DEFAULT_FRAMES = 256;
+
+    /** Size of the page header (nSlots, freeEnd) and of a slot (offset, length).
+     */
+    private static final int HEADER = 8, SLOT = 8;
+
+    /** The name of table.
+     */
+    private final String tableName;
+
+    /** Array of attribute domains.
+     */
+    private final Class [] domain;
+
+    /** The number of frames in the buffer pool.
+     */
+    private final int frames;
+
+    /** The number of pages in the file.
+     */
+    private int nPages = 0;
+
+    /** Counter for the number of tuples in this list.
+     */
+    private volatile int nRecords = 0;
+
+    /** Record ids: rid[i] holds the page (high 32 bits) and slot (low 32 bits)
+     *  of tuple i.
+     */
+    private long [] rid = new long [16];
+
+    /** The random access file that holds the pages.
+     */
+    transient private RandomAccessFile file;
+
+    /** The buffer pool caching the pages of the file.
+     */
+    transient private BufferPool pool;
+
+    /** The codec used to pack and unpack the tuples.
+     */
+    transient private TupleCodec codec;
+
+    /***************************************************************************
+     * Construct a PageFile.
+     * @param _tableName  the name of the table
+     * @param _domain     the domains of the attributes
+     * @param _frames     the number of pages to cache in memory
+     */
+    public PageFile (String _tableName, Class [] _domain, int _frames)
+    {
+        tableName = _tableName;
+        domain    = _domain;
+        frames    = _frames;
+        open ();
+    } // constructor
+
+    /***************************************************************************
+     * Open the page file along with its buffer pool and codec.
+     */
+    private void open ()
+    {
+        codec = new TupleCodec (domain);
+        try {
+            file = new RandomAccessFile (tableName + EXT, "rw");
+            pool = new BufferPool (file.getChannel (), frames);
+        } catch (FileNotFoundException ex) {
+            file = null;
+            out.println ("PageFile.open: unable to open - " + ex);
+        } // try
+    } // open
+
+    /***************************************************************************
+     * Add a new tuple by packing it into the last page, starting a new page if
+     * the last one lacks room for the record and its slot.
+     * @param tuple  the tuple to add
+     * @return  whether the addition succeeded
+     */
+    public synchronized boolean add (Comparable [] tuple)
+    {
+        int length = codec.size (tuple);
+        if (length + SLOT > BufferPool.PAGE_SIZE - HEADER) {
+            out.println ("PageFile.add: exceeds page size " + length);
+            return false;
+        } // if
+
+        ByteBuffer page = (nPages == 0) ? null : pool.page (nPages - 1);
+        if (page == null || freeSpace (page) < length + SLOT) {
+            page = pool.page (nPages++);
+            page.putInt (0, 0);
+            page.putInt (4, BufferPool.PAGE_SIZE);
+        } // if
+
+        int nSlots   = page.getInt (0);
+        int recStart = page.getInt (4) - length;
+        ByteBuffer rec = page.duplicate ();
+        rec.position (recStart);
+        codec.encode (tuple, rec);
+        page.putInt (HEADER + nSlots * SLOT, recStart);
+        page.putInt (HEADER + nSlots * SLOT + 4, length);
+        page.putInt (0, nSlots + 1);
+        page.putInt (4, recStart);
+        pool.markDirty (nPages - 1);
+
+        if (nRecords == rid.length) rid = Arrays.copyOf (rid, 2 * rid.length);
+        rid [nRecords++] = ((long) (nPages - 1) << 32) | nSlots;
+        return true;
+    } // add
+
+    /***************************************************************************
+     * Get the ith tuple by locating its page and slot.
+     * @param i  the index of the tuple to get
+     * @return  the ith tuple
+     */
+    public synchronized Comparable [] get (int i)
+    {
+        if (i < 0 || i >= nRecords) throw new IndexOutOfBoundsException ("PageFile.get: " + i);
+        ByteBuffer page = pool.page ((int) (rid [i] >>> 32));
+        int        slot = (int) rid [i];
+        return codec.decode (page, page.getInt (HEADER + slot * SLOT));
+    } // get
+
+    /***************************************************************************
+     * Return the size of the page file in terms of the number of tuples.
+     * @return  the number of tuples
+     */
+    public int size ()
+    {
+        return nRecords;
+    } // size
+
+    /***************************************************************************
+     * Return the fraction of page requests served from the buffer pool.
+     * @return  the hit ratio
+     */
+    public double hitRatio ()
+    {
+        return pool.hitRatio ();
+    } // hitRatio
+
+    /***************************************************************************
+     * Write any modified pages back and close the file.
+     */
+    public void close ()
+    {
+        try {
+            pool.flush ();
+            file.close ();
+        } catch (IOException ex) {
+            out.println ("PageFile.close: unable to close - " + ex);
+        } // try
+    } // close
+
+    /***************************************************************************
+     * Compute the free space between the slot directory and the records.
+     * @param page  the page to check
+     * @return  the number of free bytes
+     */
+    private static int freeSpace (ByteBuffer page)
+    {
+        return page.getInt (4) - (HEADER + page.getInt (0) * SLOT);
+    } // freeSpace
+
+    /***************************************************************************
+     * Write the modified pages back before this list is serialized (e.g., by
+     * Table.save).
+     * @param oos  the stream to write the list to
+     */
+    private void writeObject (ObjectOutputStream oos) throws IOException
+    {
+        pool.flush ();
+        oos.defaultWriteObject ();
+    } // writeObject
+
+    /***************************************************************************
+     * Reopen the page file after this list has been deserialized.
+     * @param ois  the stream to read the list from
+     */
+    private void readObject (ObjectInputStream ois)
+            throws IOException, ClassNotFoundException
+    {
+        ois.defaultReadObject ();
+        open ();
+    } // readObject
+
+} // PageFile class
+
@@ -7,6 +7,12 @@
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.*;
 import java.util.stream.*;
 import java.util.Queue;
@@ -30,9 +36,62 @@ public class Table implements Serializable
      */
     private static final String EXT = ".dbf";
 
+    /** Storage backends for the tuples of a newly created table:
+     *  FILE    - a FileList using RandomAccessFile reads and writes
+     *  MAPPED  - a FileList served from a memory mapping of its data file
+     *  PAGED   - a PageFile of slotted pages cached in a buffer pool
+     *  COLUMNAR - a ColumnList keeping one file per attribute
+     */
+    public enum Storage { FILE, MAPPED, PAGED, COLUMNAR }
+
+    /** Map implementations for the primary-key index:
+     *  TREE_MAP    - java.util.TreeMap (red-black tree)
+     *  BPTREE_MAP  - BpTreeMap (B+Tree with a high fanout)
+     *  LINHASH_MAP - LinHashMap (linear hashing; equality lookups only)
+     *  EXTHASH_MAP - ExtHashMap (extendible hashing kept in the table's .dir/.bkt
+     *                files, mapping keys to row ids; survives save/load unrebuilt)
+     *  BPTREE_FILE - BpTreeFile (B+Tree of pages in the table's .idx file, mapping
+     *                keys to row ids; survives save/load unrebuilt)
+     *  SKIPLIST_MAP - java.util.concurrent.ConcurrentSkipListMap (sorted, lock-free)
+     *  A table shared by threads should use a concurrent index (BPTREE_MAP or
+     *  SKIPLIST_MAP): inserts into the other maps exclude lookups (see indexLock).
+     */
+    public enum MapType { TREE_MAP, BPTREE_MAP, LINHASH_MAP, EXTHASH_MAP, BPTREE_FILE, SKIPLIST_MAP }
+
+    /** Kinds of secondary index (see createIndex):
+     *  ORDERED  - a TreeMap from attribute values to row ids (equality and ranges)
+     *  HASH     - a HashMap from attribute values to row ids (equality only)
+     */
+    public enum IndexKind { ORDERED, HASH }
+
+    /** Fraction of each B+Tree node filled when the index is bulk loaded (leaving
+     *  room for later inserts).
+     */
+    private static final double BULK_FILL = 0.9;
+
+    /** Fewest tuples for which select and project scan the table in parallel, on
+     *  the common fork-join pool.
+     */
+    private static final int PARALLEL_MIN = 1 << 14;
+
+    /** Number of hash bits used to radix partition the inputs of a parallel join
+     *  (giving 2^JOIN_BITS partitions).
+     */
+    private static final int JOIN_BITS = 6;
+
+    /** Number of tuples the external sort sorts in memory at a time, each sorted
+     *  batch being written to a temporary FileList (a run).
+     */
+    private static final int RUN_ROWS = 1 << 16;
+
+    /** Fewest tuples in the smaller input of a join for which it is no longer hash
+     *  joined in memory, but sorted externally and merge joined.
+     */
+    private static final int HASH_MAX = 1 << 20;
+
     /** Counter for naming temporary tables.
      */
-    private static int count = 0;
+    private static final AtomicInteger count = new AtomicInteger ();
 
     /** Table name.
      */
@@ -61,6 +120,111 @@ public class Table implements Serializable
     /** Index into tuples (maps key to tuple number).
      */
     private final Map <KeyType, Comparable []> index;
+
+    /** Secondary indexes on other attributes, keyed by their attribute names.
+     */
+    private final Map <String, SecondaryIndex> secondary = new ConcurrentHashMap <> ();
+
+    /** Lock guarding the primary-key index (see readerLock and writerLock).
+     */
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock ();
+
+    /************************************************************************************
+     * This inner class presents an index from keys to row ids (positions in tuples),
+     * such as the disk-resident ExtHashMap, as a map from keys to tuples.  Entries are
+     * added with putRow, given the row id that append reserved for the tuple; put is
+     * not supported, as the tuple alone does not tell which row holds it when inserts
+     * run concurrently.
+     */
+    private class RowIndex
+            extends AbstractMap <KeyType, Comparable []>
+            implements Serializable
+    {
+        final Map <KeyType, Integer> rids;                     // key -> row id
+
+        RowIndex (Map <KeyType, Integer> _rids) { rids = _rids; }
+
+        public Comparable [] get (Object k)
+        {
+            Integer rid = rids.get (k);
+            return (rid == null) ? null : tuples.get (rid);
+        } // get
+
+        public Comparable [] put (KeyType k, Comparable [] t)
+        {
+            throw new UnsupportedOperationException ("RowIndex.put: use putRow with the tuple's row id");
+        } // put
+
+        /** Record that the tuple with key k is at row rid. */
+        void putRow (KeyType k, int rid) { rids.put (k, rid); }
+
+        public boolean containsKey (Object k) { return rids.containsKey (k); }
+        public int size () { return rids.size (); }
+        public void clear () { rids.clear (); }
+
+        public Set <Map.Entry <KeyType, Comparable []>> entrySet ()
+        {
+            return new AbstractSet <Map.Entry <KeyType, Comparable []>> () {
+                public Iterator <Map.Entry <KeyType, Comparable []>> iterator ()
+                {
+                    Iterator <Map.Entry <KeyType, Integer>> it = rids.entrySet ().iterator ();
+                    return new Iterator <Map.Entry <KeyType, Comparable []>> () {
+                        public boolean hasNext () { return it.hasNext (); }
+                        public Map.Entry <KeyType, Comparable []> next ()
+                        {
+                            Map.Entry <KeyType, Integer> e = it.next ();
+                            return new AbstractMap.SimpleImmutableEntry <> (e.getKey (), tuples.get (e.getValue ()));
+                        } // next
+                    };
+                } // iterator
+                public int size () { return rids.size (); }
+            };
+        } // entrySet
+
+    } // RowIndex inner class
+
+    /************************************************************************************
+     * This inner class holds a secondary index: a multimap from the values of some
+     * attributes to the row ids (positions in tuples) of the tuples having them.
+     * Access is synchronized on the index, and lookups return copies of the row ids,
+     * so each secondary index is its own lock stripe.
+     */
+    private static class SecondaryIndex
+            implements Serializable
+    {
+        final int []                          cols;            // positions of the indexed attributes
+        final Map <KeyType, List <Integer>>   rows;            // attribute values -> row ids
+
+        SecondaryIndex (int [] _cols, IndexKind kind)
+        {
+            cols = _cols;
+            rows = (kind == IndexKind.ORDERED) ? new TreeMap <> () : new HashMap <> ();
+        } // constructor
+
+        /** Index tuple t, stored as row rid. */
+        synchronized void add (Comparable [] t, int rid)
+        {
+            rows.computeIfAbsent (keyOf (t, cols), k -> new ArrayList <> (1)).add (rid);
+        } // add
+
+        /** Return the row ids of the tuples whose values are k. */
+        synchronized List <Integer> lookup (KeyType k)
+        {
+            List <Integer> rids = rows.get (k);
+            return (rids == null) ? Collections.emptyList () : new ArrayList <> (rids);
+        } // lookup
+
+        /** Return the row ids of the tuples whose values are in the range (ORDERED only). */
+        @SuppressWarnings("unchecked")
+        synchronized List <Integer> range (KeyType lo, boolean loInc, KeyType hi, boolean hiInc)
+        {
+            List <Integer> rids = new ArrayList <> ();
+            for (List <Integer> r : secondaryRange ((NavigableMap <KeyType, List <Integer>>) rows,
+                                                    lo, loInc, hi, hiInc).values ()) rids.addAll (r);
+            return rids;
+        } // range
+
+    } // SecondaryIndex inner class
     
     
 
@@ -78,6 +242,39 @@ public class Table implements Serializable
      * @param _key        the primary key
      */  
     public Table (String _name, String [] _attribute, Class [] _domain, String [] _key)
+    {
+        this (_name, _attribute, _domain, _key, Storage.FILE);
+    } // constructor
+
+    /************************************************************************************
+     * Construct an empty table from the meta-data specifications, storing its tuples
+     * in the given kind of storage.
+     *
+     * @param _name       the name of the relation
+     * @param _attribute  the string containing attributes names
+     * @param _domain     the string containing attribute domains (data types)
+     * @param _key        the primary key
+     * @param _storage    the storage backend for the tuples
+     */  
+    public Table (String _name, String [] _attribute, Class [] _domain, String [] _key,
+                  Storage _storage)
+    {
+        this (_name, _attribute, _domain, _key, _storage, MapType.TREE_MAP);
+    } // constructor
+
+    /************************************************************************************
+     * Construct an empty table from the meta-data specifications, storing its tuples
+     * in the given kind of storage and indexing them with the given kind of map.
+     *
+     * @param _name       the name of the relation
+     * @param _attribute  the string containing attributes names
+     * @param _domain     the string containing attribute domains (data types)
+     * @param _key        the primary key
+     * @param _storage    the storage backend for the tuples
+     * @param _mapType    the map implementation for the primary-key index
+     */  
+    public Table (String _name, String [] _attribute, Class [] _domain, String [] _key,
+                  Storage _storage, MapType _mapType)
     {
         name      = _name;
         attribute = _attribute;
@@ -86,9 +283,13 @@ public class Table implements Serializable
         
         
         //tuples    = new ArrayList <> ();
-        tuples = new FileList(_name, 100 , domain);
+        switch (_storage) {
+        case PAGED:    tuples = new PageFile (_name, domain, PageFile.DEFAULT_FRAMES); break;
+        case COLUMNAR: tuples = new ColumnList (_name, domain);                        break;
+        default:       tuples = new FileList(_name, 100 , domain, _storage == Storage.MAPPED);
+        } // switch
         //System.out.println(computeRecordSize(_domain));
-        index     = new TreeMap <> ();       // also try BPTreeMap, LinHashMap or ExtHashMap
+        index     = makeIndex (_name, _mapType);
 
     } // constructor
     
@@ -153,8 +354,7 @@ public class Table implements Serializable
         String [] newKey    = (Arrays.asList (attrs).containsAll (Arrays.asList (key))) ? key : attrs; //title year
         
         //List <Comparable []> rows = new ArrayList <> ();
-        int temp = count++;
-        List <Comparable []> rows = new FileList(name + temp, 100, colDomain);
+        int temp = count.getAndIncrement ();
         int attrsLength = attrs.length;
         //1.key arributes index in old_tuples
         int[] oldTuplesIndex = new int[attrsLength];
@@ -168,6 +368,19 @@ public class Table implements Serializable
         }
         
         
+        //a large table is projected in parallel, its row ranges concatenated in order
+        if (parallel ()) {
+        	return new Table (name + temp, attrs, colDomain, newKey,
+        	           scan ().map (t -> keyVals (t, oldTuplesIndex)).collect (Collectors.toList ()));
+        }
+
+        List <Comparable []> rows = new FileList(name + temp, 100, colDomain);
+        //2.a columnar table reads only the projected columns
+        if (tuples instanceof ColumnList) {
+        	for (Comparable[] narrow : ((ColumnList) tuples).scan(oldTuplesIndex)) rows.add(narrow);
+        	return new Table (name + temp, attrs, colDomain, newKey, rows);
+        }
+
         Comparable[] newTuple;
         //2.traverse every row in table
         for (Comparable[] oldTuple : tuples) {
@@ -185,7 +398,8 @@ public class Table implements Serializable
     } // project
 
     /************************************************************************************
-     * Select the tuples satisfying the given predicate (Boolean function).
+     * Select the tuples satisfying the given predicate (Boolean function).  A large
+     * table is filtered in parallel (see scan), so the predicate must be thread-safe.
      *
      * #usage movie.select (t -> t[movie.col("year")].equals (1977))
      *
@@ -196,9 +410,43 @@ public class Table implements Serializable
     {
         out.println ("RA> " + name + ".select (" + predicate + ")");
 
-        return new Table (name + count++, attribute, domain, key,
-                   tuples.stream ().filter (t -> predicate.test (t))
-                                   .collect (Collectors.toList ()));
+        return new Table (name + count.getAndIncrement (), attribute, domain, key,
+                   scan ().filter (t -> predicate.test (t))
+                          .collect (Collectors.toList ()));
+    } // select
+
+    /************************************************************************************
+     * Select the tuples satisfying the given predicate over the given attributes.  The
+     * predicate sees a narrow tuple holding just those attributes (in the order given),
+     * so a columnar table only reads the referenced columns to evaluate it, and then
+     * fetches the full tuples that qualify.
+     *
+     * #usage movie.select ("year", t -> t[0].equals (1977))
+     *
+     * @param attributes  the attributes the predicate refers to
+     * @param predicate   the check condition over those attributes
+     * @return  a table with tuples satisfying the predicate
+     */
+    public Table select (String attributes, Predicate <Comparable []> predicate)
+    {
+        out.println ("RA> " + name + ".select (" + attributes + ", " + predicate + ")");
+
+        int [] cols = match (attributes.split (" "));
+        List <Comparable []> rows = new ArrayList <> ();
+
+        if (tuples instanceof ColumnList) {
+            int i = 0;
+            for (Comparable [] narrow : ((ColumnList) tuples).scan (cols)) {
+                if (predicate.test (narrow)) rows.add (tuples.get (i));
+                i++;
+            } // for
+        } else {
+            for (Comparable [] t : tuples) {
+                if (predicate.test (keyVals (t, cols))) rows.add (t);
+            } // for
+        } // if
+
+        return new Table (name + count.getAndIncrement (), attribute, domain, key, rows);
     } // select
 
     /************************************************************************************
@@ -217,8 +465,14 @@ public class Table implements Serializable
         Comparable [] holder; 
 	//used to hold the row temporarily. 
        
-        holder = index.get(keyVal); 
-	//get the comparable that holds the data of the row from the tree map. 
+        Lock lock = readerLock ();
+        lock.lock ();
+        try {
+            //get the comparable that holds the data of the row from the index
+            holder = index.get(keyVal); 
+        } finally {
+            lock.unlock ();
+        } // try
        
         if (holder!= null)
         {
@@ -228,13 +482,142 @@ public class Table implements Serializable
 	
 	
 
-        return new Table (name + count++, attribute, domain, key, rows);
+        return new Table (name + count.getAndIncrement (), attribute, domain, key, rows);
 	//return the table corresponding to the input key. 
 	
     } // select
 
+    /************************************************************************************
+     * Select the tuples whose keys lie in the range lo .. hi (both bounds included).
+     *
+     * #usage movie.select (new KeyType ("Star_Wars", 1977), new KeyType ("Star_Wars_2", 1980))
+     *
+     * @param lo  the low key value
+     * @param hi  the high key value
+     * @return  a table with the tuples whose keys are in the range
+     */
+    public Table select (KeyType lo, KeyType hi)
+    {
+        return select (lo, true, hi, true);
+    } // select
+
+    /************************************************************************************
+     * Select the tuples whose keys lie between lo and hi, where each bound may be
+     * included or excluded and a null bound leaves that side open.  When the sorted
+     * index covers every tuple, only the qualifying range of the index is visited
+     * (TreeMap.subMap or a BpTreeMap/BpTreeFile range view); otherwise the tuples are
+     * scanned.
+     *
+     * #usage movie.select (new KeyType ("Star_Wars"), true, null, false)
+     *
+     * @param lo     the low key value (null if unbounded)
+     * @param loInc  whether the low bound is included
+     * @param hi     the high key value (null if unbounded)
+     * @param hiInc  whether the high bound is included
+     * @return  a table with the tuples whose keys are in the range
+     */
+    public Table select (KeyType lo, boolean loInc, KeyType hi, boolean hiInc)
+    {
+        out.println ("RA> " + name + ".select (" + (loInc ? "[" : "(") + lo + ", " + hi + (hiInc ? "]" : ")") + ")");
+
+        List <Comparable []> rows = new ArrayList <> ();
+
+        if (! keyRange (lo, loInc, hi, hiInc, rows)) {
+            int [] cols = match (key);
+            for (Comparable [] t : tuples) {
+                if (inRange (keyOf (t, cols), lo, loInc, hi, hiInc)) rows.add (t);
+            } // for
+        } // if
+
+        return new Table (name + count.getAndIncrement (), attribute, domain, key, rows);
+    } // select
+
+    /************************************************************************************
+     * Create a secondary index on the given (typically non-key) attributes, mapping
+     * their values to the row ids of the tuples having them.  The existing tuples are
+     * indexed now and insert keeps the index up to date: the index is built and
+     * registered under the write lock of indexLock, which waits for the inserts in
+     * progress (each holds writerLock), so no row is missed.  Selections on these
+     * attributes (select (attributes, keyVal) and its range form) and joins on them
+     * (with this table as table2) then use the index instead of a scan.
+     *
+     * #usage movie.createIndex ("studioName", Table.IndexKind.HASH)
+     *
+     * @param attributes  the attributes to index
+     * @param kind        ORDERED (supports ranges) or HASH (equality only)
+     */
+    public void createIndex (String attributes, IndexKind kind)
+    {
+        out.println ("DDL> create " + kind + " index on " + name + " (" + attributes + ")");
+
+        SecondaryIndex sx = new SecondaryIndex (match (attributes.split (" ")), kind);
+        indexLock.writeLock ().lock ();
+        try {
+            int rid = 0;
+            for (Comparable [] t : tuples) sx.add (t, rid++);
+            secondary.put (attributes, sx);
+        } finally {
+            indexLock.writeLock ().unlock ();
+        } // try
+    } // createIndex
+
+    /************************************************************************************
+     * Select the tuples whose values for the given attributes equal keyVal.  A
+     * secondary index on those attributes is used if there is one, and the primary-key
+     * index if they are the key; otherwise the tuples are scanned.
+     *
+     * #usage movie.select ("studioName", new KeyType ("Fox"))
+     *
+     * @param attributes  the attributes to compare
+     * @param keyVal      the values the attributes must equal
+     * @return  a table with the tuples having those values
+     */
+    public Table select (String attributes, KeyType keyVal)
+    {
+        return select (attributes, keyVal, true, keyVal, true);
+    } // select
+
+    /************************************************************************************
+     * Select the tuples whose values for the given attributes lie between lo and hi,
+     * where each bound may be included or excluded and a null bound leaves that side
+     * open.  An ORDERED secondary index (or the primary-key index) on those attributes
+     * visits only the qualifying range, and a HASH secondary index answers equality
+     * (lo equal to hi, both included); otherwise the tuples are scanned.
+     *
+     * #usage movie.select ("year", new KeyType (1970), true, new KeyType (1980), false)
+     *
+     * @param attributes  the attributes to compare
+     * @param lo          the low values (null if unbounded)
+     * @param loInc       whether the low bound is included
+     * @param hi          the high values (null if unbounded)
+     * @param hiInc       whether the high bound is included
+     * @return  a table with the tuples whose values are in the range
+     */
+    public Table select (String attributes, KeyType lo, boolean loInc, KeyType hi, boolean hiInc)
+    {
+        out.println ("RA> " + name + ".select (" + attributes + ", " + (loInc ? "[" : "(") + lo + ", "
+                                                 + hi + (hiInc ? "]" : ")") + ")");
+
+        int []               cols  = match (attributes.split (" "));
+        List <Comparable []> rows  = new ArrayList <> ();
+        SecondaryIndex       sx    = secondaryOn (cols);
+        boolean              point = lo != null && lo.equals (hi) && loInc && hiInc;
+
+        if (sx != null && (point || sx.rows instanceof NavigableMap)) {
+            List <Integer> rids = point ? sx.lookup (lo) : sx.range (lo, loInc, hi, hiInc);
+            for (int rid : rids) rows.add (tuples.get (rid));
+        } else if (! Arrays.equals (cols, match (key)) || ! keyRange (lo, loInc, hi, hiInc, rows)) {
+            for (Comparable [] t : tuples) {
+                if (inRange (keyOf (t, cols), lo, loInc, hi, hiInc)) rows.add (t);
+            } // for
+        } // if
+
+        return new Table (name + count.getAndIncrement (), attribute, domain, key, rows);
+    } // select
+
     /************************************************************************************
      * Union this table and table2.  Check that the two tables are compatible.
+     * Duplicates are removed by hashing each tuple (wrapped in a KeyType).
      *
      * #usage movie.union (show)
      * @author Fu
@@ -247,42 +630,13 @@ public class Table implements Serializable
         if (! compatible (table2)) return null;
 
         List <Comparable []> rows = new ArrayList <> ();
+        Set <KeyType>        seen = new HashSet <> (2 * (tuples.size () + table2.tuples.size ()) + 1);
 
-        if(this.compatible(table2)){
-        	for(int i = 0; i < this.tuples.size(); i++){
-        		boolean flag1 = false, flag2 = false;
-        		//rows.add(this.tuples.get(i));
-        		/*for(int j = i; j > 0; j--){
-        			if( matchTuple(this.tuples.get(i), table2.tuples.get(j)) ||
-        				(matchTuple(this.tuples.get(i), this.tuples.get(j)) ) ||
-        				(matchTuple(table2.tuples.get(i), table2.tuples.get(j)) ) 
-        					){
-        				flag = true;
-        				continue;
-        			}
-        		}*/
-        		for(int j = 1; j < rows.size(); j++){
-            		if( matchTuple(this.tuples.get(i), rows.get(j))){
-            			flag1 = true;
-            			continue;
-            		}
-        			
-        		}
-        		if(flag1 == false){
-        			rows.add(this.tuples.get(i));
-        		}
-        		for(int j = 0; j < rows.size(); j++){
-        			if( matchTuple(table2.tuples.get(i), rows.get(j))){
-            			flag2 = true;
-            			continue;
-            		}
-        		}
-        		if(flag2 == false)
-        			rows.add(table2.tuples.get(i));
-        	}
-        }
+        //stream both inputs once, keeping the first occurrence of each tuple
+        for (Comparable [] t : tuples)        if (seen.add (new KeyType (t))) rows.add (t);
+        for (Comparable [] t : table2.tuples) if (seen.add (new KeyType (t))) rows.add (t);
 
-        return new Table (name + count++, attribute, domain, key, rows);
+        return new Table (name + count.getAndIncrement (), attribute, domain, key, rows);
     } // union
 
 
@@ -291,6 +645,7 @@ public class Table implements Serializable
      * #usage movie.minus (show)
      * @author Yunyun
      * @Description: Take the difference of this table and table2. Check that the two tables are compatible.
+     * table2 is loaded into a hash set of tuples (wrapped in KeyType) and this table is streamed past it.
      * @param @param table2 The rhs table in the minus operation   
      * @return a table representing the difference 
      */
@@ -300,56 +655,32 @@ public class Table implements Serializable
         if (! compatible (table2)) return null;
 
         
-        int temp = count++;
+        int temp = count.getAndIncrement ();
         List <Comparable []> rows = new FileList(name + temp, 100, this.domain);
         //List <Comparable []> rows = new ArrayList <> ();
 
-        //1.Check that the two tables are compatible.
-        if(this.compatible(table2)){
-        	int attributeLen = attribute.length;
-        	//2. Match we macth all tuples  Traverse
-        	for(int i=0;i<this.tuples.size();i++){
-        		boolean flag = false; 
-        		for(int j=0;j<table2.tuples.size();j++){
-        			//System.out.println(i+""+j+" "+matchTuple(this.tuples.get(i),table2.tuples.get(j)));
-        			if(  matchTuple(  this.tuples.get(i),table2.tuples.get(j)  )  ){
-        				flag = true;
-        				continue;
-        			}
-        		}
-        		//System.out.println(flag);
-        		if(flag == false){
-        			rows.add(this.tuples.get(i));
-        		}
-        	}
-        }
-        
+        //1.hash every tuple of table2
+        Set <KeyType> exclude = new HashSet <> (2 * table2.tuples.size () + 1);
+        for (Comparable [] t : table2.tuples) exclude.add (new KeyType (t));
+
+        //2.stream this table, keeping the tuples table2 does not have
+        for (Comparable [] t : tuples) {
+            if (! exclude.contains (new KeyType (t))) rows.add (t);
+        } // for
 
         return new Table (name + temp, attribute, domain, key, rows);
     } // minus
     
-    /**
-    * 
-    * @author Yunyun
-    * @Description: judge whether tuple1 equals tuple2
-    * @param @param tuple1 
-    * @param @param tuple2
-    * @return boolean  tuple1 == tuple2 :true  else return false
-     */
-    private boolean matchTuple(Comparable[] tuple1,Comparable[] tuple2){
-    	//Match we macth all the attr in the tuple (also we can macth the primary key first)
-    	for(int i= 0 ;i<tuple1.length;i++){  
-    		if(!tuple1[i].equals(tuple2[i])){
-    			return false;
-    		}
-    	}
-    	return true;
-    }
-
     /************************************************************************************
      * Join this table and table2 by performing an "equi-join".  Tuples from both tables
      * are compared requiring attributes1 to equal attributes2.  Disambiguate attribute
      * names by append "2" to the end of any duplicate attribute name.
+     * A sort-merge join is used when both sides are indexed on their join attributes,
+     * an index-nested-loop join when attributes2 is table2's primary key, and again a
+     * sort-merge join when only this table is indexed or both inputs are too large to
+     * hash (at least HASH_MAX tuples), the unindexed inputs being sorted externally.
+     * Otherwise a hash join is used (radix partitioned and run in parallel for large
+     * tables).
      *
      * #usage movie.join ("studioNo", "name", studio)
      * @author: Sahisnu Nimmakayalu 
@@ -367,7 +698,7 @@ public class Table implements Serializable
         String [] u_attrs = attributes2.split (" ");
         //splits the input parameters. 
 
-        List <Comparable []> rows = new ArrayList <> ();
+        List <Comparable []> rows;
      		
         int [] attHolder1 = new int [t_attrs.length]; 
         int [] attHolder2 = new int [u_attrs.length]; 
@@ -395,45 +726,23 @@ public class Table implements Serializable
         }       
         //gets the column index for the wanted columns. 
         
-        List <Comparable []> temp1Tuple = this.tuples; 
-        List <Comparable []> temp2Tuple = table2.tuples;
-        //temporary holds the tuples due to fact that tuples will be modified and we do not want to modify the actual tuple.
-        
-        boolean isTrue = false; 
-        
-        Comparable [] tempRow = null; 
-        //holds the row that is added to new table. 
-        
-        for (Comparable [] temp1 : temp1Tuple)
-        {
-        	for (Comparable [] temp2 : temp2Tuple)
-        	{
-        		//iterate through both tuples. 
-        		
-        		for (int i = 0; i<attHolder1.length; i++)
-        		{
-        			if (temp1[attHolder1[i]].equals(temp2[attHolder2[i]]))
-        			{
-        				//check the tuple and if the attributes match up combine the tuples into 1 table add to row. 
-        				tempRow = ArrayUtil.concat(temp1, Arrays.copyOfRange(temp2, 0, temp2.length)); 
-        					if (i == attHolder1.length-1)
-        						rows.add(tempRow); 
-        						//used to make sure we check all keys then add. 
-        			}
-        			else
-        			{
-        				//if not matching element break out of row no need to examine anymore. 
-        				break; 
-        			}
-
-        		}
-        		
-
-        	}
-        	 
-        }
+        if (! joinable (attHolder1, table2, attHolder2)) {
+            rows = new ArrayList <> ();                             // values of different domains never match
+        } else if (indexedOn (attHolder1) && table2.indexedOn (attHolder2)) {
+            rows = mergeJoin (attHolder1, table2, attHolder2);
+        } else if (table2.keyIndexedOn (attHolder2)) {
+            rows = indexJoin (attHolder1, table2);
+        } else if (table2.secondaryOn (attHolder2) != null) {
+            rows = secondaryJoin (attHolder1, table2, table2.secondaryOn (attHolder2));
+        } else if (indexedOn (attHolder1) || Math.min (tuples.size (), table2.tuples.size ()) >= HASH_MAX) {
+            rows = mergeJoin (attHolder1, table2, attHolder2);
+        } else if (parallel () || table2.parallel ()) {
+            rows = partitionJoin (attHolder1, table2, attHolder2);
+        } else {
+            rows = hashJoin (attHolder1, table2, attHolder2);
+        } // if
 
-        return new Table (name + count++, ArrayUtil.concat (attribute, table2.attribute),
+        return new Table (name + count.getAndIncrement (), ArrayUtil.concat (attribute, table2.attribute),
                                           ArrayUtil.concat (domain, table2.domain), key, rows);
     } // join
 
@@ -531,11 +840,135 @@ public class Table implements Serializable
         	finalRows.add(tempArray);
         }
 
-        return new Table (name + count++, finalAttr.toArray(new String[finalAttr.size()]),
+        return new Table (name + count.getAndIncrement (), finalAttr.toArray(new String[finalAttr.size()]),
         		finalDom.toArray(new Class[finalDom.size()]), key, finalRows);
 
     } // join
 
+    //----------------------------------------------------------------------------------
+    // Batch-at-a-time operators
+    //----------------------------------------------------------------------------------
+
+    /************************************************************************************
+     * Select the tuples satisfying the given batch filter, executing batch at a time:
+     * the tuples are read in batches of column vectors (see Batch), the filter narrows
+     * each batch's selection vector, e.g., with Batch.selectInt, and only the rows that
+     * qualify are boxed back into tuples.
+     *
+     * #usage movie.selectBatch (b -> b.selectInt (movie.col ("year"), y -> y < 1980))
+     *
+     * @param filter  the filter narrowing the selection of each batch
+     * @return  a table with the tuples that passed the filter
+     */
+    public Table selectBatch (Consumer <Batch> filter)
+    {
+        out.println ("RA> " + name + ".selectBatch (" + filter + ")");
+
+        int []               all  = IntStream.range (0, attribute.length).toArray ();
+        List <Comparable []> rows = new ArrayList <> ();
+        for (Iterator <Batch> it = batches (); it.hasNext (); ) {
+            Batch b = it.next ();
+            filter.accept (b);
+            for (int k = 0; k < b.count (); k++) rows.add (b.row (b.selected (k), all));
+        } // for
+
+        return new Table (name + count.getAndIncrement (), attribute, domain, key, rows);
+    } // selectBatch
+
+    /************************************************************************************
+     * Project the tuples onto the given attributes, executing batch at a time: only
+     * the projected vectors of each batch are boxed into the result tuples.
+     *
+     * #usage movie.projectBatch ("title year")
+     *
+     * @param attributes  the attributes to project onto
+     * @return  a table of projected tuples
+     */
+    public Table projectBatch (String attributes)
+    {
+        out.println ("RA> " + name + ".projectBatch (" + attributes + ")");
+
+        String [] attrs     = attributes.split (" ");
+        int []    cols      = match (attrs);
+        Class []  colDomain = extractDom (cols, domain);
+        String [] newKey    = (Arrays.asList (attrs).containsAll (Arrays.asList (key))) ? key : attrs;
+
+        List <Comparable []> rows = new ArrayList <> (tuples.size ());
+        for (Iterator <Batch> it = batches (); it.hasNext (); ) {
+            Batch b = it.next ();
+            for (int k = 0; k < b.count (); k++) rows.add (b.row (b.selected (k), cols));
+        } // for
+
+        return new Table (name + count.getAndIncrement (), attrs, colDomain, newKey, rows);
+    } // projectBatch
+
+    /************************************************************************************
+     * Join this table and table2 on a single integral attribute of each (Integer,
+     * Long, Short or Byte, the same domain on both sides, as join requires), executing
+     * batch at a time.  table2 is loaded into a hash table on primitive long keys, its
+     * rows boxed as they are loaded, and this table's batches probe it in a tight loop
+     * over the key vector, so no key is boxed and only the matching rows of this table
+     * are materialized.  Other joins are passed on to join.
+     *
+     * #usage starsIn.joinBatch ("movieYear", "year", movie)
+     *
+     * @param attribute1  the attribute of this table to be compared
+     * @param attribute2  the attribute of table2 to be compared
+     * @param table2      the rhs table in the join operation
+     * @return  a table with tuples satisfying the equality predicate
+     */
+    public Table joinBatch (String attribute1, String attribute2, Table table2)
+    {
+        int c1 = col (attribute1), c2 = table2.col (attribute2);
+        if (c1 < 0 || c2 < 0 || ! integral (domain [c1]) || domain [c1] != table2.domain [c2]) {
+            return join (attribute1, attribute2, table2);
+        } // if
+        out.println ("RA> " + name + ".joinBatch (" + attribute1 + ", " + attribute2 + ", "
+                                                    + table2.name + ")");
+
+        //1.build: the keys of table2 in a chained hash table over primitive arrays
+        int []               all2  = IntStream.range (0, table2.attribute.length).toArray ();
+        List <Comparable []> build = new ArrayList <> (table2.tuples.size ());
+        long []              bKey  = new long [Math.max (16, table2.tuples.size ())];
+        for (Iterator <Batch> it = table2.batches (); it.hasNext (); ) {
+            Batch b = it.next ();
+            for (int k = 0; k < b.count (); k++) {
+                int i = b.selected (k);
+                if (build.size () == bKey.length) bKey = Arrays.copyOf (bKey, 2 * bKey.length);
+                bKey [build.size ()] = b.longAt (c2, i);
+                build.add (b.row (i, all2));
+            } // for
+        } // for
+        int   mask = Integer.highestOneBit (Math.max (1, 2 * build.size ())) * 2 - 1;
+        int [] head = new int [mask + 1], next = new int [build.size ()];
+        Arrays.fill (head, -1);
+        for (int r = 0; r < build.size (); r++) {
+            int h = mix (bKey [r]) & mask;
+            next [r] = head [h];
+            head [h] = r;
+        } // for
+
+        //2.probe: each batch of this table, box a row only when it matches
+        int []               all1 = IntStream.range (0, attribute.length).toArray ();
+        List <Comparable []> rows = new ArrayList <> ();
+        for (Iterator <Batch> it = batches (); it.hasNext (); ) {
+            Batch b = it.next ();
+            for (int k = 0; k < b.count (); k++) {
+                int           i = b.selected (k);
+                long          x = b.longAt (c1, i);
+                Comparable [] t = null;
+                for (int r = head [mix (x) & mask]; r >= 0; r = next [r]) {
+                    if (bKey [r] != x) continue;
+                    if (t == null) t = b.row (i, all1);
+                    rows.add (ArrayUtil.concat (t, build.get (r)));
+                } // for
+            } // for
+        } // for
+
+        return new Table (name + count.getAndIncrement (), ArrayUtil.concat (attribute, table2.attribute),
+                                          ArrayUtil.concat (domain, table2.domain), key, rows);
+    } // joinBatch
+
     /************************************************************************************
      * Return the column position for the given attribute name.
      *
@@ -552,7 +985,11 @@ public class Table implements Serializable
     } // col
 
     /************************************************************************************
-     * Insert a tuple to the table.
+     * Insert a tuple to the table.  Inserts may run concurrently with each other and
+     * with queries: the tuple is appended under a row id of its own (see append), then
+     * entered in the primary-key index and in each secondary index (which synchronizes
+     * on its own), all under writerLock, so createIndex sees either the whole insert or
+     * none of it.
      *
      * #usage movie.insert ("'Star_Wars'", 1977, 124, "T", "Fox", 12345)
      *
@@ -564,17 +1001,91 @@ public class Table implements Serializable
         out.println ("DML> insert into " + name + " values ( " + Arrays.toString (tup) + " )");
 
         if (typeCheck (tup)) {
-            tuples.add (tup);
-            Comparable [] keyVal = new Comparable [key.length];
-            int []        cols   = match (key);
-            for (int j = 0; j < keyVal.length; j++) keyVal [j] = tup [cols [j]];
-            index.put (new KeyType (keyVal), tup);
+            KeyType keyVal = keyOf (tup, match (key));
+            Lock    lock   = writerLock ();
+            lock.lock ();
+            try {
+                int rid = append (tup);
+                if (rid < 0) return false;
+                if (index instanceof RowIndex) ((RowIndex) index).putRow (keyVal, rid);
+                else                           index.put (keyVal, tup);
+                for (SecondaryIndex sx : secondary.values ()) sx.add (tup, rid);
+            } finally {
+                lock.unlock ();
+            } // try
             return true;
         } else {
             return false;
         } // if
     } // insert
 
+    /************************************************************************************
+     * Append a tuple to the tuples of this table and return its row id.  A FileList
+     * reserves the row id itself, letting appends proceed in parallel; other lists
+     * append under their own lock.
+     *
+     * @param tup  the tuple to append
+     * @return  the row id of the tuple, or -1 if it could not be stored
+     */
+    private int append (Comparable [] tup)
+    {
+        if (tuples instanceof FileList) return ((FileList) tuples).append (tup);
+        synchronized (tuples) {
+            return tuples.add (tup) ? tuples.size () - 1 : -1;
+        } // synchronized
+    } // append
+
+    /************************************************************************************
+     * Rebuild the primary-key index from the tuples of this table (e.g., for a table
+     * produced by an operator or loaded without its index).  The (key, tuple) pairs
+     * are sorted once; a BpTreeMap index is then bulk loaded bottom-up rather than
+     * built by one insertion per tuple.  As with insert, a later tuple replaces an
+     * earlier one with the same key.  A row-id index (RowIndex) is refilled in a
+     * single pass, as it needs no ordering.
+     */
+    public void reindex ()
+    {
+        indexLock.writeLock ().lock ();
+        try {
+            rebuildIndex ();
+        } finally {
+            indexLock.writeLock ().unlock ();
+        } // try
+    } // reindex
+
+    /************************************************************************************
+     * Rebuild the primary-key index from the tuples (see reindex).  The caller holds
+     * the index's write lock.
+     */
+    @SuppressWarnings("unchecked")
+    private void rebuildIndex ()
+    {
+        int [] cols = match (key);
+        if (index instanceof RowIndex) {
+            index.clear ();
+            int rid = 0;
+            for (Comparable [] t : tuples) ((RowIndex) index).putRow (keyOf (t, cols), rid++);
+            return;
+        } // if
+
+        List <Map.Entry <KeyType, Comparable []>> keyed = new ArrayList <> (tuples.size ());
+        for (Comparable [] t : tuples) keyed.add (new AbstractMap.SimpleEntry <> (keyOf (t, cols), t));
+        keyed.sort (Map.Entry.comparingByKey ());                              // stable: keeps insert order
+
+        List <Map.Entry <KeyType, Comparable []>> unique = new ArrayList <> (keyed.size ());
+        for (int i = 0; i < keyed.size (); i++) {
+            if (i + 1 < keyed.size () && keyed.get (i).getKey ().equals (keyed.get (i + 1).getKey ())) continue;
+            unique.add (keyed.get (i));
+        } // for
+
+        if (index instanceof BpTreeMap) {
+            ((BpTreeMap <KeyType, Comparable []>) index).bulkLoad (unique, BULK_FILL);
+        } else {
+            index.clear ();
+            for (Map.Entry <KeyType, Comparable []> e : unique) index.put (e.getKey (), e.getValue ());
+        } // if
+    } // rebuildIndex
+
     /************************************************************************************
      * Get the name of the table.
      *
@@ -639,14 +1150,21 @@ public class Table implements Serializable
     {
         out.println ("\n Index for " + name);
         out.println ("-------------------");
-        for (Map.Entry <KeyType, Comparable []> e : index.entrySet ()) {
-            out.println (e.getKey () + " -> " + Arrays.toString (e.getValue ()));
-        } // for
+        Lock lock = readerLock ();
+        lock.lock ();
+        try {
+            for (Map.Entry <KeyType, Comparable []> e : index.entrySet ()) {
+                out.println (e.getKey () + " -> " + Arrays.toString (e.getValue ()));
+            } // for
+        } finally {
+            lock.unlock ();
+        } // try
         out.println ("-------------------");
     } // printIndex
 
     /************************************************************************************
-     * Load the table with the given name into memory. 
+     * Load the table with the given name into memory.  If the table was saved without
+     * its index, the index is rebuilt (see reindex).
      *
      * @param name  the name of the table to load
      */
@@ -657,6 +1175,7 @@ public class Table implements Serializable
             ObjectInputStream ois = new ObjectInputStream (new FileInputStream (DIR + name + EXT));
             tab = (Table) ois.readObject ();
             ois.close ();
+            if (tab.index.isEmpty () && ! tab.tuples.isEmpty ()) tab.reindex ();
         } catch (IOException ex) {
             out.println ("load: IO Exception");
             ex.printStackTrace ();
@@ -675,6 +1194,7 @@ public class Table implements Serializable
      */
     public void save ()
     {
+        indexLock.writeLock ().lock ();                                // no inserts while writing
         try {
         	//System.out.println("===="+ DIR + name + EXT);
             ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream (DIR + name + EXT));
@@ -683,6 +1203,8 @@ public class Table implements Serializable
         } catch (IOException ex) {
             out.println ("save: IO Exception");
             ex.printStackTrace ();
+        } finally {
+            indexLock.writeLock ().unlock ();
         } // try
     } // save
 
@@ -690,6 +1212,687 @@ public class Table implements Serializable
     // Private Methods
     //----------------------------------------------------------------------------------
 
+    /************************************************************************************
+     * Perform an equi-join of this table and table2 using a hash join.  The smaller of
+     * the two inputs (by tuples.size ()) is loaded into a hash table keyed on its join
+     * columns, and the larger input is streamed past it, probing once per tuple.
+     * Result tuples are always laid out as this tuple followed by the table2 tuple.
+     *
+     * @param cols1   the join column positions in this table
+     * @param table2  the rhs table in the join operation
+     * @param cols2   the join column positions in table2
+     * @return  the list of joined tuples
+     */
+    private List <Comparable []> hashJoin (int [] cols1, Table table2, int [] cols2)
+    {
+        List <Comparable []> rows = new ArrayList <> ();
+        hashJoin (tuples, cols1, table2.tuples, cols2, rows);
+        return rows;
+    } // hashJoin
+
+    /************************************************************************************
+     * Hash join the tuples of left and right, building on the smaller of the two and
+     * probing with the other, and append each result (the left tuple followed by the
+     * right tuple) to rows.
+     *
+     * @param left   the lhs tuples
+     * @param lCols  the join column positions in left
+     * @param right  the rhs tuples
+     * @param rCols  the join column positions in right
+     * @param rows   the list to append the joined tuples to
+     */
+    private static void hashJoin (List <Comparable []> left, int [] lCols, List <Comparable []> right,
+                                  int [] rCols, List <Comparable []> rows)
+    {
+        boolean              buildLeft = left.size () <= right.size ();
+        List <Comparable []> build     = buildLeft ? left : right;
+        List <Comparable []> probe     = buildLeft ? right : left;
+        int []               bCols     = buildLeft ? lCols : rCols;
+        int []               pCols     = buildLeft ? rCols : lCols;
+
+        Map <KeyType, List <Comparable []>> table = new HashMap <> (2 * build.size () + 1);
+        for (Comparable [] t : build) {
+            table.computeIfAbsent (keyOf (t, bCols), k -> new ArrayList <> (1)).add (t);
+        } // for
+
+        for (Comparable [] p : probe) {
+            List <Comparable []> matches = table.get (keyOf (p, pCols));
+            if (matches == null) continue;
+            for (Comparable [] b : matches) {
+                rows.add (buildLeft ? ArrayUtil.concat (b, p) : ArrayUtil.concat (p, b));
+            } // for
+        } // for
+    } // hashJoin
+
+    /************************************************************************************
+     * Perform an equi-join of this table and table2 using a radix-partitioned hash
+     * join.  Both inputs are scanned (in parallel when large, see scan) into
+     * 2^JOIN_BITS partitions by the hash of their join key, so matching tuples land in
+     * the same partition.  The partition pairs are then hash joined independently on
+     * the fork-join pool; each worker appends its results to its own buffer and the
+     * buffers are concatenated at the end.
+     *
+     * @param cols1   the join column positions in this table
+     * @param table2  the rhs table in the join operation
+     * @param cols2   the join column positions in table2
+     * @return  the list of joined tuples
+     */
+    private List <Comparable []> partitionJoin (int [] cols1, Table table2, int [] cols2)
+    {
+        List <Comparable []> [] left  = partition (cols1);
+        List <Comparable []> [] right = table2.partition (cols2);
+        return IntStream.range (0, left.length).parallel ()
+                        .collect (ArrayList::new,
+                                  (rows, i) -> hashJoin (left [i], cols1, right [i], cols2, rows),
+                                  ArrayList::addAll);
+    } // partitionJoin
+
+    /************************************************************************************
+     * Radix partition the tuples of this table on the hash of their values for the
+     * given columns, into 2^JOIN_BITS lists.  Each task of a parallel scan fills its
+     * own set of lists, which are then merged pairwise.
+     *
+     * @param cols  the column positions to partition on
+     * @return  the partitions, indexed by the low JOIN_BITS bits of the hash
+     */
+    @SuppressWarnings("unchecked")
+    private List <Comparable []> [] partition (int [] cols)
+    {
+        int mask = (1 << JOIN_BITS) - 1;
+        return scan ().collect (() -> {
+                                    List <Comparable []> [] parts = new List [mask + 1];
+                                    for (int i = 0; i <= mask; i++) parts [i] = new ArrayList <> ();
+                                    return parts;
+                                },
+                                (parts, t) -> {
+                                    int h = keyOf (t, cols).hashCode ();
+                                    parts [(h ^ (h >>> 16)) & mask].add (t);
+                                },
+                                (a, b) -> { for (int i = 0; i <= mask; i++) a [i].addAll (b [i]); });
+    } // partition
+
+    /************************************************************************************
+     * Perform an equi-join of this table and table2 using an index-nested-loop join.
+     * The join columns of table2 must be its primary key: each tuple of this table
+     * probes table2's index rather than scanning table2's tuples.
+     *
+     * @param cols1   the join column positions in this table (in table2 key order)
+     * @param table2  the rhs table in the join operation
+     * @return  the list of joined tuples
+     */
+    private List <Comparable []> indexJoin (int [] cols1, Table table2)
+    {
+        List <Comparable []> rows = new ArrayList <> ();
+        Lock                 lock = table2.readerLock ();
+        lock.lock ();
+        try {
+            for (Comparable [] t : tuples) {
+                Comparable [] u = table2.index.get (keyOf (t, cols1));
+                if (u != null) rows.add (ArrayUtil.concat (t, u));
+            } // for
+        } finally {
+            lock.unlock ();
+        } // try
+        return rows;
+    } // indexJoin
+
+    /************************************************************************************
+     * Perform an equi-join of this table and table2 using a secondary index of table2
+     * on its join columns: each tuple of this table looks up the row ids of its
+     * matches rather than scanning table2's tuples.
+     *
+     * @param cols1   the join column positions in this table
+     * @param table2  the rhs table in the join operation
+     * @param sx      the secondary index of table2 on its join columns
+     * @return  the list of joined tuples
+     */
+    private List <Comparable []> secondaryJoin (int [] cols1, Table table2, SecondaryIndex sx)
+    {
+        List <Comparable []> rows = new ArrayList <> ();
+        for (Comparable [] t : tuples) {
+            for (int rid : sx.lookup (keyOf (t, cols1))) rows.add (ArrayUtil.concat (t, table2.tuples.get (rid)));
+        } // for
+        return rows;
+    } // secondaryJoin
+
+    /************************************************************************************
+     * Perform an equi-join of this table and table2 using a sort-merge join.  Both
+     * inputs are streamed in join key order and merged in a single pass, so the result
+     * comes out sorted on the join key.  An input with a sorted index on its join
+     * columns (see indexedOn) is streamed through the index (for BpTreeMap, along the
+     * linked leaves) under the index's read lock; any other input is sorted externally
+     * first (see sortedOn).  When both indexes are read, their locks are taken in a
+     * fixed order (see lockedBefore), so two joins never wait on each other.
+     *
+     * @param cols1   the join column positions in this table
+     * @param table2  the rhs table in the join operation
+     * @param cols2   the join column positions in table2
+     * @return  the list of joined tuples, ordered by join key
+     */
+    private List <Comparable []> mergeJoin (int [] cols1, Table table2, int [] cols2)
+    {
+        boolean                  idx1 = indexedOn (cols1), idx2 = table2.indexedOn (cols2);
+        Iterator <Comparable []> it1  = idx1 ? null : sortedOn (cols1);
+        Iterator <Comparable []> it2  = idx2 ? null : table2.sortedOn (cols2);
+
+        Lock first = null, second = null;
+        if (idx1 && idx2 && table2 != this) {
+            boolean mine = lockedBefore (table2);
+            first  = mine ? readerLock () : table2.readerLock ();
+            second = mine ? table2.readerLock () : readerLock ();
+        } else if (idx1 || idx2) {
+            first  = idx1 ? readerLock () : table2.readerLock ();
+        } // if
+        if (first != null)  first.lock ();
+        if (second != null) second.lock ();
+        try {
+            if (idx1) it1 = index.values ().iterator ();
+            if (idx2) it2 = table2.index.values ().iterator ();
+            return merge (it1, cols1, it2, cols2);
+        } finally {
+            if (second != null) second.unlock ();
+            if (first != null)  first.unlock ();
+            if (it1 instanceof RunMerger) ((RunMerger) it1).close ();
+            if (it2 instanceof RunMerger) ((RunMerger) it2).close ();
+        } // try
+    } // mergeJoin
+
+    /************************************************************************************
+     * Merge two inputs sorted on their join columns, pairing each tuple of the first
+     * with the run of tuples of the second having the same join key.
+     *
+     * @param it1    the lhs tuples in join key order
+     * @param cols1  the join column positions in the lhs tuples
+     * @param it2    the rhs tuples in join key order
+     * @param cols2  the join column positions in the rhs tuples
+     * @return  the list of joined tuples, ordered by join key
+     */
+    private static List <Comparable []> merge (Iterator <Comparable []> it1, int [] cols1,
+                                                Iterator <Comparable []> it2, int [] cols2)
+    {
+        List <Comparable []> rows = new ArrayList <> ();
+
+        Comparable [] t  = it1.hasNext () ? it1.next () : null;
+        Comparable [] u  = it2.hasNext () ? it2.next () : null;
+        KeyType       kt = (t == null) ? null : keyOf (t, cols1);
+        KeyType       ku = (u == null) ? null : keyOf (u, cols2);
+
+        List <Comparable []> run = new ArrayList <> ();
+        while (t != null && u != null) {
+            int cmp = kt.compareTo (ku);
+            if (cmp < 0) {
+                t  = it1.hasNext () ? it1.next () : null;
+                kt = (t == null) ? null : keyOf (t, cols1);
+            } else if (cmp > 0) {
+                u  = it2.hasNext () ? it2.next () : null;
+                ku = (u == null) ? null : keyOf (u, cols2);
+            } else {
+                KeyType k = kt;
+                run.clear ();
+                while (u != null && ku.compareTo (k) == 0) {               // collect the rhs run
+                    run.add (u);
+                    u  = it2.hasNext () ? it2.next () : null;
+                    ku = (u == null) ? null : keyOf (u, cols2);
+                } // while
+                while (t != null && kt.compareTo (k) == 0) {               // pair it with the lhs run
+                    for (Comparable [] r : run) rows.add (ArrayUtil.concat (t, r));
+                    t  = it1.hasNext () ? it1.next () : null;
+                    kt = (t == null) ? null : keyOf (t, cols1);
+                } // while
+            } // if
+        } // while
+        return rows;
+    } // merge
+
+    /************************************************************************************
+     * Determine whether this table's index lock is taken before table2's when a join
+     * needs both (ordering by name, then by identity hash code).
+     *
+     * @param table2  the other table
+     * @return  whether this table's lock comes first
+     */
+    private boolean lockedBefore (Table table2)
+    {
+        int c = name.compareTo (table2.name);
+        return (c != 0) ? c < 0 : System.identityHashCode (this) <= System.identityHashCode (table2);
+    } // lockedBefore
+
+    /************************************************************************************
+     * Return the tuples of this table sorted on the given columns using an external
+     * merge sort.  The tuples are read RUN_ROWS at a time; each batch is sorted in
+     * memory and written to a temporary FileList (a run), and the runs are then merged
+     * through a priority queue, each read front to back in large chunks, so memory is
+     * bounded by RUN_ROWS tuples plus one read buffer per run.  If all the tuples fit
+     * in a single batch, it is returned without writing a run.
+     *
+     * @param cols  the column positions to sort on
+     * @return  an iterator over the tuples in order (a RunMerger if runs were written)
+     */
+    private Iterator <Comparable []> sortedOn (int [] cols)
+    {
+        Comparator <Comparable []> byKey = (a, b) -> compareOn (a, b, cols);
+        List <FileList>            runs  = new ArrayList <> ();
+        List <Comparable []>       batch = new ArrayList <> (Math.min (RUN_ROWS, tuples.size ()));
+        TupleCodec                 codec = new TupleCodec (domain);
+
+        for (Comparable [] t : tuples) {
+            batch.add (t);
+            if (batch.size () == RUN_ROWS) {
+                runs.add (writeRun (batch, byKey, codec));
+                batch.clear ();
+            } // if
+        } // for
+        if (runs.isEmpty ()) {
+            batch.sort (byKey);
+            return batch.iterator ();
+        } // if
+        if (! batch.isEmpty ()) runs.add (writeRun (batch, byKey, codec));
+        return new RunMerger (runs, byKey);
+    } // sortedOn
+
+    /************************************************************************************
+     * Sort a batch of tuples and write it to a new temporary FileList.
+     *
+     * @param batch  the tuples to sort and write
+     * @param byKey  the sort order
+     * @param codec  the codec for this table's tuples (to size the records)
+     * @return  the run holding the sorted tuples
+     */
+    private FileList writeRun (List <Comparable []> batch, Comparator <Comparable []> byKey, TupleCodec codec)
+    {
+        batch.sort (byKey);
+        int size = 1;
+        for (Comparable [] t : batch) size = Math.max (size, codec.size (t));
+        FileList run = new FileList (name + "_run" + count.getAndIncrement (), size, domain);
+        for (Comparable [] t : batch) run.add (t);
+        return run;
+    } // writeRun
+
+    /************************************************************************************
+     * Compare tuples a and b on the given columns.
+     *
+     * @param a     the first tuple
+     * @param b     the second tuple
+     * @param cols  the column positions to compare on
+     * @return  a negative, zero or positive value as a is less than, equal to or
+     *          greater than b on those columns
+     */
+    @SuppressWarnings("unchecked")
+    private static int compareOn (Comparable [] a, Comparable [] b, int [] cols)
+    {
+        for (int c : cols) {
+            int d = a [c].compareTo (b [c]);
+            if (d != 0) return d;
+        } // for
+        return 0;
+    } // compareOn
+
+    /************************************************************************************
+     * This inner class merges the sorted runs of an external sort (see sortedOn),
+     * keeping the next tuple of each run in a priority queue.  The run files are
+     * deleted once the merge is exhausted or closed.
+     */
+    private static class RunMerger
+            implements Iterator <Comparable []>
+    {
+        private final List <FileList>                   runs;       // the sorted runs
+        private final List <Iterator <Comparable []>>   scans;      // a scan of each run
+        private final Comparable [][]                   head;       // next tuple of each run
+        private final PriorityQueue <Integer>           queue;      // runs ordered by head
+
+        RunMerger (List <FileList> _runs, Comparator <Comparable []> byKey)
+        {
+            runs  = _runs;
+            scans = new ArrayList <> (runs.size ());
+            head  = new Comparable [runs.size ()][];
+            queue = new PriorityQueue <> (runs.size (), (i, j) -> byKey.compare (head [i], head [j]));
+            for (int i = 0; i < runs.size (); i++) {
+                scans.add (runs.get (i).iterator ());
+                advance (i);
+            } // for
+        } // constructor
+
+        /** Load the next tuple of run i into the queue, if it has one. */
+        private void advance (int i)
+        {
+            if (scans.get (i).hasNext ()) {
+                head [i] = scans.get (i).next ();
+                queue.add (i);
+            } // if
+        } // advance
+
+        public boolean hasNext ()
+        {
+            if (queue.isEmpty ()) close ();
+            return ! queue.isEmpty ();
+        } // hasNext
+
+        public Comparable [] next ()
+        {
+            if (queue.isEmpty ()) throw new NoSuchElementException ();
+            int           i = queue.poll ();
+            Comparable [] t = head [i];
+            advance (i);
+            return t;
+        } // next
+
+        /** Delete the run files (later calls do nothing). */
+        void close ()
+        {
+            for (FileList run : runs) run.delete ();
+            runs.clear ();
+            queue.clear ();
+        } // close
+
+    } // RunMerger inner class
+
+    /************************************************************************************
+     * Return the lock to hold while reading the primary-key index.  Readers of an
+     * in-memory index share it; a disk-resident index (RowIndex) updates its buffer
+     * pool and scratch buffers even on reads, so its readers hold it exclusively.
+     *
+     * @return  the read or write lock of indexLock
+     */
+    private Lock readerLock ()
+    {
+        return (index instanceof RowIndex) ? indexLock.writeLock () : indexLock.readLock ();
+    } // readerLock
+
+    /************************************************************************************
+     * Return the lock to hold while inserting into the primary-key index.  An index
+     * that is safe for concurrent use (a ConcurrentMap or BpTreeMap) lets inserts share
+     * the lock, excluding only save and reindex; other indexes are updated exclusively.
+     *
+     * @return  the read or write lock of indexLock
+     */
+    private Lock writerLock ()
+    {
+        return (index instanceof ConcurrentMap || index instanceof BpTreeMap) ? indexLock.readLock ()
+                                                                               : indexLock.writeLock ();
+    } // writerLock
+
+    /************************************************************************************
+     * Iterate over the tuples of this table in batches (see Batch).  A FileList decodes
+     * its records straight into the vectors of the batch; tuples held in other lists
+     * are unboxed into it.  Each call to next refills the same batch.
+     *
+     * @return  an iterator over the batches
+     */
+    private Iterator <Batch> batches ()
+    {
+        if (tuples instanceof FileList) return ((FileList) tuples).batches ();
+
+        Iterator <Comparable []> it    = tuples.iterator ();
+        Batch                    batch = new Batch (domain);
+        return new Iterator <Batch> () {
+            public boolean hasNext () { return it.hasNext (); }
+
+            public Batch next ()
+            {
+                if (! it.hasNext ()) throw new NoSuchElementException ();
+                batch.clear ();
+                while (! batch.isFull () && it.hasNext ()) batch.add (it.next ());
+                return batch;
+            } // next
+        };
+    } // batches
+
+    /************************************************************************************
+     * Determine whether values of the given domain are integers held in a batch's int
+     * or long vectors.
+     *
+     * @param c  the domain to check
+     * @return  whether it is Integer, Long, Short or Byte
+     */
+    private static boolean integral (Class c)
+    {
+        return Batch.isInt (c) || c == Long.class;
+    } // integral
+
+    /************************************************************************************
+     * Hash a long key by multiplying with a large odd constant and folding the high
+     * bits into the low ones (used by joinBatch).
+     *
+     * @param x  the key to hash
+     * @return  the hash code
+     */
+    private static int mix (long x)
+    {
+        long h = x * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    } // mix
+
+    /************************************************************************************
+     * Stream the tuples of this table, in parallel if the table is large enough (see
+     * parallel).  A parallel stream splits the tuples into row ranges that are scanned
+     * on the fork-join pool; collecting it keeps the tuples in order.
+     *
+     * @return  a stream over the tuples
+     */
+    private Stream <Comparable []> scan ()
+    {
+        return StreamSupport.stream (tuples.spliterator (), parallel ());
+    } // scan
+
+    /************************************************************************************
+     * Determine whether to scan this table in parallel: it must have at least
+     * PARALLEL_MIN tuples, and not be stored in a PageFile or ColumnList, whose reads
+     * are serialized.
+     *
+     * @return  whether to scan in parallel
+     */
+    private boolean parallel ()
+    {
+        return tuples.size () >= PARALLEL_MIN && ! (tuples instanceof PageFile || tuples instanceof ColumnList);
+    } // parallel
+
+    /************************************************************************************
+     * Determine whether this table has a sorted index on exactly the given columns that
+     * covers every tuple, so that it can be scanned in key order.
+     *
+     * @param cols  the column positions to check
+     * @return  whether the sorted index can be used for the given columns
+     */
+    private boolean indexedOn (int [] cols)
+    {
+        return index instanceof SortedMap && ! tuples.isEmpty () && keyIndexedOn (cols);
+    } // indexedOn
+
+    /************************************************************************************
+     * Determine whether the given columns are exactly the primary key (in key order)
+     * and the index holds an entry for every tuple, so that lookups may use it.
+     *
+     * @param cols  the column positions to check
+     * @return  whether the primary-key index can be used for the given columns
+     */
+    private boolean keyIndexedOn (int [] cols)
+    {
+        return index.size () == tuples.size () && Arrays.equals (cols, match (key));
+    } // keyIndexedOn
+
+    /************************************************************************************
+     * Add the tuples with keys between lo and hi to rows by visiting only that portion
+     * of the primary-key index, under the index's read lock.  Nothing is added if the
+     * index is not sorted or does not cover every tuple.
+     *
+     * @param lo     the low key value (null if unbounded)
+     * @param loInc  whether the low bound is included
+     * @param hi     the high key value (null if unbounded)
+     * @param hiInc  whether the high bound is included
+     * @param rows   the list to add the tuples in the range to
+     * @return  whether the index was used
+     */
+    @SuppressWarnings("unchecked")
+    private boolean keyRange (KeyType lo, boolean loInc, KeyType hi, boolean hiInc, List <Comparable []> rows)
+    {
+        Lock lock = readerLock ();
+        lock.lock ();
+        try {
+            if (index.size () != tuples.size ()) return false;
+            if (lo != null && hi != null && lo.compareTo (hi) > 0) return true;
+
+            Map <KeyType, Comparable []> range;
+            if (index instanceof BpTreeMap) {
+                range = ((BpTreeMap <KeyType, Comparable []>) index).subMap (lo, loInc, hi, hiInc);
+            } else if (index instanceof RowIndex && ((RowIndex) index).rids instanceof BpTreeFile) {
+                range = new RowIndex (((BpTreeFile) ((RowIndex) index).rids).subMap (lo, loInc, hi, hiInc));
+            } else if (index instanceof NavigableMap) {
+                NavigableMap <KeyType, Comparable []> map = (NavigableMap <KeyType, Comparable []>) index;
+                range = (lo == null && hi == null) ? map
+                      : (lo == null) ? map.headMap (hi, hiInc)
+                      : (hi == null) ? map.tailMap (lo, loInc)
+                      : map.subMap (lo, loInc, hi, hiInc);
+            } else {
+                return false;
+            } // if
+            rows.addAll (range.values ());
+            return true;
+        } finally {
+            lock.unlock ();
+        } // try
+    } // keyRange
+
+    /************************************************************************************
+     * Return the secondary index on exactly the given columns, or null if there is
+     * none.  A registered index covers every tuple (see createIndex).
+     *
+     * @param cols  the column positions to check
+     * @return  the usable secondary index, or null
+     */
+    private SecondaryIndex secondaryOn (int [] cols)
+    {
+        for (SecondaryIndex sx : secondary.values ()) {
+            if (Arrays.equals (sx.cols, cols)) return sx;
+        } // for
+        return null;
+    } // secondaryOn
+
+    /************************************************************************************
+     * Return the portion of an ordered secondary index with keys between lo and hi.
+     *
+     * @param map    the ordered secondary index
+     * @param lo     the low key value (null if unbounded)
+     * @param loInc  whether the low bound is included
+     * @param hi     the high key value (null if unbounded)
+     * @param hiInc  whether the high bound is included
+     * @return  the range view of the index
+     */
+    private static Map <KeyType, List <Integer>> secondaryRange (NavigableMap <KeyType, List <Integer>> map,
+                                                                 KeyType lo, boolean loInc, KeyType hi, boolean hiInc)
+    {
+        if (lo != null && hi != null && lo.compareTo (hi) > 0) return Collections.emptyMap ();
+        if (lo == null && hi == null) return map;
+        if (lo == null) return map.headMap (hi, hiInc);
+        if (hi == null) return map.tailMap (lo, loInc);
+        return map.subMap (lo, loInc, hi, hiInc);
+    } // secondaryRange
+
+    /************************************************************************************
+     * Determine whether key k lies between lo and hi.
+     *
+     * @param k      the key to check
+     * @param lo     the low key value (null if unbounded)
+     * @param loInc  whether the low bound is included
+     * @param hi     the high key value (null if unbounded)
+     * @param hiInc  whether the high bound is included
+     * @return  whether k is in the range
+     */
+    private static boolean inRange (KeyType k, KeyType lo, boolean loInc, KeyType hi, boolean hiInc)
+    {
+        if (lo != null) {
+            int c = k.compareTo (lo);
+            if (c < 0 || (c == 0 && ! loInc)) return false;
+        } // if
+        if (hi != null) {
+            int c = k.compareTo (hi);
+            if (c > 0 || (c == 0 && ! hiInc)) return false;
+        } // if
+        return true;
+    } // inRange
+
+    /************************************************************************************
+     * Form the key made up of the values of tuple t in the given columns.
+     *
+     * @param t     the tuple to extract the key from
+     * @param cols  the column positions making up the key
+     * @return  the key for tuple t
+     */
+    private static KeyType keyOf (Comparable [] t, int [] cols)
+    {
+        return new KeyType (keyVals (t, cols));
+    } // keyOf
+
+    /************************************************************************************
+     * Extract the values of tuple t in the given columns.
+     *
+     * @param t     the tuple to extract from
+     * @param cols  the column positions to extract
+     * @return  the values of tuple t in the given columns
+     */
+    private static Comparable [] keyVals (Comparable [] t, int [] cols)
+    {
+        Comparable [] vals = new Comparable [cols.length];
+        for (int j = 0; j < cols.length; j++) vals [j] = t [cols [j]];
+        return vals;
+    } // keyVals
+
+    /************************************************************************************
+     * Make an empty primary-key index of the given kind.  An index that maps keys to
+     * row ids (ExtHashMap, BpTreeFile) is wrapped in a RowIndex.  A BpTreeMap on a
+     * single-attribute key lays its node keys out for that attribute's domain.
+     *
+     * @param _name    the name of the table (and of the index's files)
+     * @param mapType  the map implementation to use
+     * @return  an empty index
+     */
+    private Map <KeyType, Comparable []> makeIndex (String _name, MapType mapType)
+    {
+        switch (mapType) {
+        case EXTHASH_MAP: return new RowIndex (new ExtHashMap (_name, extractDom (match (key), domain),
+                                                                PageFile.DEFAULT_FRAMES));
+        case BPTREE_FILE: return new RowIndex (new BpTreeFile (_name, extractDom (match (key), domain),
+                                                                PageFile.DEFAULT_FRAMES));
+        case BPTREE_MAP:  return new BpTreeMap <> (KeyType.class, Comparable [].class,
+                                                   (key.length == 1) ? domain [match (key) [0]] : null);
+        case LINHASH_MAP: return new LinHashMap <> ();
+        case SKIPLIST_MAP: return new ConcurrentSkipListMap <> ();
+        default:          return new TreeMap <> ();
+        } // switch
+    } // makeIndex
+
+    /************************************************************************************
+     * Determine whether the join columns of this table and table2 pair up, i.e., there
+     * are as many of each and each pair has the same domain.  Keys are compared with
+     * compareTo, which cannot compare values of different classes (e.g., an Integer
+     * with a Long), so joins on columns that do not pair up are reported here and
+     * yield no tuples.
+     *
+     * @param cols1   the join column positions in this table
+     * @param table2  the rhs table
+     * @param cols2   the join column positions in table2
+     * @return  whether the columns can be joined
+     */
+    private boolean joinable (int [] cols1, Table table2, int [] cols2)
+    {
+        if (cols1.length != cols2.length) {
+            out.println ("join ERROR: " + cols1.length + " join attributes paired with " + cols2.length);
+            return false;
+        } // if
+        for (int j = 0; j < cols1.length; j++) {
+            if (cols1 [j] < 0 || cols2 [j] < 0) {
+                out.println ("join ERROR: join attribute " + j + " not found");
+                return false;
+            } // if
+            if (domain [cols1 [j]] != table2.domain [cols2 [j]]) {
+                out.println ("join ERROR: " + attribute [cols1 [j]] + " (" + domain [cols1 [j]].getSimpleName ()
+                           + ") and " + table2.attribute [cols2 [j]] + " ("
+                           + table2.domain [cols2 [j]].getSimpleName () + ") have different domains");
+                return false;
+            } // if
+        } // for
+        return true;
+    } // joinable
+
     /************************************************************************************
      * Determine whether the two tables (this and table2) are compatible, i.e., have
      * the same number of attributes each with the same corresponding domain.
@@ -766,8 +1969,9 @@ public class Table implements Serializable
     { 
     	if(t.length == attribute.length){
     		for(int i = 0; i < t.length; i++){
-    			if(t[i].getClass().equals(this.domain[i])){
-    				continue;
+    			if(t[i] == null || ! t[i].getClass().equals(this.domain[i])){
+    				out.println ("typeCheck: " + attribute[i] + " = " + t[i] + " is not a " + domain[i].getSimpleName ());
+    				return false;
     			}
     		}
     		return true;
@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * @file  TupleCodec.java
+ *
+ * @author   John Miller
+ */
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static java.lang.System.out;
+
+/*******************************************************************************
+ * This class packs tuples into and unpacks them from ByteBuffers.  The type of
+ * each attribute is resolved once per domain array, so encoding writes straight
+ * into the caller's (reusable) buffer and decoding uses absolute-position reads.
+ * The record layout is the one DataOutputStream produces: big-endian numbers,
+ * Float stored as a double, and strings in writeUTF form (unsigned 2-byte length
+ * followed by modified UTF-8).
+ */
+class TupleCodec
+{
+    /** Type codes for the supported domains.
+     */
+    private static final byte LONG = 0, INT = 1, SHORT = 2, BYTE = 3, DOUBLE = 4,
+                              CHAR = 5, STRING = 6;
+
+    /** The type code of each attribute.
+     */
+    private final byte [] type;
+
+    /** The size of every record in bytes, or -1 if the domain holds a String.
+     */
+    private final int fixedSize;
+
+    /***************************************************************************
+     * Construct a codec for tuples of the given domains.
+     * @param domain  the domains of the attributes
+     */
+    TupleCodec (Class [] domain)
+    {
+        type = new byte [domain.length];
+        int size = 0;
+        for (int i = 0; i < domain.length; i++) {
+            if      (domain [i] == Long.class)      { type [i] = LONG;   size += FileList.tupleLongLen; }
+            else if (domain [i] == Integer.class)   { type [i] = INT;    size += FileList.tupleIntLen; }
+            else if (domain [i] == Short.class)     { type [i] = SHORT;  size += FileList.tupleShortLen; }
+            else if (domain [i] == Byte.class)      { type [i] = BYTE;   size += FileList.tupleBytetLen; }
+            else if (domain [i] == Double.class ||
+                     domain [i] == Float.class)     { type [i] = DOUBLE; size += FileList.tupleDoubleLen; }
+            else if (domain [i] == Character.class) { type [i] = CHAR;   size += FileList.tupleCharacterLen; }
+            else if (domain [i] == String.class)    { type [i] = STRING; }
+            else throw new IllegalArgumentException ("TupleCodec: unsupported domain " + domain [i]);
+        } // for
+        for (byte t : type) if (t == STRING) size = -1;
+        fixedSize = size;
+    } // constructor
+
+    /***************************************************************************
+     * Return the record size shared by all tuples, or -1 if it varies.
+     * @return  the fixed record size
+     */
+    int fixedSize ()
+    {
+        return fixedSize;
+    } // fixedSize
+
+    /***************************************************************************
+     * Compute the number of bytes the given tuple packs into.
+     * @param tuple  the tuple to size
+     * @return  the packed size in bytes
+     */
+    int size (Comparable [] tuple)
+    {
+        if (fixedSize >= 0) return fixedSize;
+        int size = 0;
+        for (int i = 0; i < type.length; i++) {
+            switch (type [i]) {
+            case LONG:   size += FileList.tupleLongLen;              break;
+            case INT:    size += FileList.tupleIntLen;               break;
+            case SHORT:  size += FileList.tupleShortLen;             break;
+            case BYTE:   size += FileList.tupleBytetLen;             break;
+            case DOUBLE: size += FileList.tupleDoubleLen;            break;
+            case CHAR:   size += FileList.tupleCharacterLen;         break;
+            default:     size += 2 + utfLength ((String) tuple [i]); break;
+            } // switch
+        } // for
+        return size;
+    } // size
+
+    /***************************************************************************
+     * Pack the tuple into buf starting at its current position, advancing the
+     * position past the record.
+     * @param tuple  the tuple to pack
+     * @param buf    the buffer to pack into (must have room for size (tuple))
+     * @return  the number of bytes written
+     */
+    int encode (Comparable [] tuple, ByteBuffer buf)
+    {
+        int start = buf.position ();
+        for (int i = 0; i < type.length; i++) {
+            switch (type [i]) {
+            case LONG:   buf.putLong (((Number) tuple [i]).longValue ());     break;
+            case INT:    buf.putInt (((Number) tuple [i]).intValue ());       break;
+            case SHORT:  buf.putShort (((Number) tuple [i]).shortValue ());   break;
+            case BYTE:   buf.put (((Number) tuple [i]).byteValue ());         break;
+            case DOUBLE: buf.putDouble (((Number) tuple [i]).doubleValue ()); break;
+            case CHAR:   buf.putChar ((Character) tuple [i]);                 break;
+            default:     putUTF ((String) tuple [i], buf);                    break;
+            } // switch
+        } // for
+        return buf.position () - start;
+    } // encode
+
+    /***************************************************************************
+     * Unpack the tuple stored at position pos of buf using absolute reads (buf's
+     * position and limit are left unchanged).
+     * @param buf  the buffer holding the record
+     * @param pos  the position where the record starts
+     * @return  the unpacked tuple
+     */
+    Comparable [] decode (ByteBuffer buf, int pos)
+    {
+        Comparable [] tuple = new Comparable [type.length];
+        for (int i = 0; i < type.length; i++) {
+            switch (type [i]) {
+            case LONG:   tuple [i] = buf.getLong (pos);   pos += FileList.tupleLongLen;      break;
+            case INT:    tuple [i] = buf.getInt (pos);    pos += FileList.tupleIntLen;       break;
+            case SHORT:  tuple [i] = buf.getShort (pos);  pos += FileList.tupleShortLen;     break;
+            case BYTE:   tuple [i] = buf.get (pos);       pos += FileList.tupleBytetLen;     break;
+            case DOUBLE: tuple [i] = buf.getDouble (pos); pos += FileList.tupleDoubleLen;    break;
+            case CHAR:   tuple [i] = buf.getChar (pos);   pos += FileList.tupleCharacterLen; break;
+            default:
+                int len = buf.getShort (pos) & 0xffff;
+                tuple [i] = getUTF (buf, pos + 2, len);
+                pos += 2 + len;
+            } // switch
+        } // for
+        return tuple;
+    } // decode
+
+    /***************************************************************************
+     * Unpack the record stored at position pos of buf into the next row of the
+     * batch, writing numeric values straight into its primitive vectors (no
+     * boxing), and select the row.
+     * @param buf    the buffer holding the record
+     * @param pos    the position where the record starts
+     * @param batch  the batch to append the row to (must not be full)
+     */
+    void decode (ByteBuffer buf, int pos, Batch batch)
+    {
+        int row = batch.size ();
+        for (int i = 0; i < type.length; i++) {
+            switch (type [i]) {
+            case LONG:   batch.longs (i) [row]   = buf.getLong (pos);   pos += FileList.tupleLongLen;      break;
+            case INT:    batch.ints (i) [row]    = buf.getInt (pos);    pos += FileList.tupleIntLen;       break;
+            case SHORT:  batch.ints (i) [row]    = buf.getShort (pos);  pos += FileList.tupleShortLen;     break;
+            case BYTE:   batch.ints (i) [row]    = buf.get (pos);       pos += FileList.tupleBytetLen;     break;
+            case DOUBLE: batch.doubles (i) [row] = buf.getDouble (pos); pos += FileList.tupleDoubleLen;    break;
+            case CHAR:   batch.objects (i) [row] = buf.getChar (pos);   pos += FileList.tupleCharacterLen; break;
+            default:
+                int len = buf.getShort (pos) & 0xffff;
+                batch.objects (i) [row] = getUTF (buf, pos + 2, len);
+                pos += 2 + len;
+            } // switch
+        } // for
+        batch.added ();
+    } // decode
+
+    /***************************************************************************
+     * Compare the record packed at position pos of buf with the one packed at
+     * position kpos of key, attribute by attribute, reading the values in place
+     * (neither record is unpacked).  The order agrees with KeyType.compareTo on
+     * the unpacked records.
+     * @param buf   the buffer holding the first record
+     * @param pos   the position where the first record starts
+     * @param key   the buffer holding the second record
+     * @param kpos  the position where the second record starts
+     * @return  a negative, zero or positive value as the first record is less
+     *          than, equal to or greater than the second
+     */
+    int compare (ByteBuffer buf, int pos, ByteBuffer key, int kpos)
+    {
+        for (int i = 0; i < type.length; i++) {
+            int c;
+            switch (type [i]) {
+            case LONG:   c = Long.compare (buf.getLong (pos), key.getLong (kpos));
+                         pos += FileList.tupleLongLen;  kpos += FileList.tupleLongLen;       break;
+            case INT:    c = Integer.compare (buf.getInt (pos), key.getInt (kpos));
+                         pos += FileList.tupleIntLen;   kpos += FileList.tupleIntLen;        break;
+            case SHORT:  c = Short.compare (buf.getShort (pos), key.getShort (kpos));
+                         pos += FileList.tupleShortLen; kpos += FileList.tupleShortLen;      break;
+            case BYTE:   c = Byte.compare (buf.get (pos), key.get (kpos));
+                         pos += FileList.tupleBytetLen; kpos += FileList.tupleBytetLen;      break;
+            case DOUBLE: c = Double.compare (buf.getDouble (pos), key.getDouble (kpos));
+                         pos += FileList.tupleDoubleLen; kpos += FileList.tupleDoubleLen;    break;
+            case CHAR:   c = Character.compare (buf.getChar (pos), key.getChar (kpos));
+                         pos += FileList.tupleCharacterLen; kpos += FileList.tupleCharacterLen; break;
+            default:
+                int len = buf.getShort (pos) & 0xffff, klen = key.getShort (kpos) & 0xffff;
+                c = compareUTF (buf, pos + 2, len, key, kpos + 2, klen);
+                pos += 2 + len; kpos += 2 + klen;
+            } // switch
+            if (c != 0) return c;
+        } // for
+        return 0;
+    } // compare
+
+    /***************************************************************************
+     * Compare two modified UTF-8 strings in place, char by char, as
+     * String.compareTo compares the decoded strings.
+     * @param a   the buffer holding the first string
+     * @param pa  the position of its first byte
+     * @param la  its encoded length in bytes
+     * @param b   the buffer holding the second string
+     * @param pb  the position of its first byte
+     * @param lb  its encoded length in bytes
+     * @return  the sign of the comparison
+     */
+    private static int compareUTF (ByteBuffer a, int pa, int la, ByteBuffer b, int pb, int lb)
+    {
+        int ea = pa + la, eb = pb + lb;
+        while (pa < ea && pb < eb) {
+            int x = a.get (pa) & 0xff, y = b.get (pb) & 0xff;
+            if (x == y && x < 0x80) { pa++; pb++; continue; }            // same ASCII char
+            int c = Character.compare (utfChar (a, pa, x), utfChar (b, pb, y));
+            if (c != 0) return c;
+            pa += utfWidth (x);
+            pb += utfWidth (y);
+        } // while
+        return (pa < ea) ? 1 : (pb < eb) ? -1 : 0;
+    } // compareUTF
+
+    /** Return the number of bytes of the modified UTF-8 char led by byte b. */
+    private static int utfWidth (int b) { return (b < 0x80) ? 1 : ((b & 0xe0) == 0xc0) ? 2 : 3; }
+
+    /** Decode the modified UTF-8 char at position pos of buf, led by byte b. */
+    private static char utfChar (ByteBuffer buf, int pos, int b)
+    {
+        if (b < 0x80) return (char) b;
+        if ((b & 0xe0) == 0xc0) return (char) (((b & 0x1f) << 6) | (buf.get (pos + 1) & 0x3f));
+        return (char) (((b & 0x0f) << 12) | ((buf.get (pos + 1) & 0x3f) << 6) | (buf.get (pos + 2) & 0x3f));
+    } // utfChar
+
+    /***************************************************************************
+     * Compute the length of s in modified UTF-8.
+     * @param s  the string to measure
+     * @return  the encoded length in bytes
+     */
+    private static int utfLength (String s)
+    {
+        int len = 0;
+        for (int i = 0; i < s.length (); i++) {
+            char c = s.charAt (i);
+            len += (c >= 0x0001 && c <= 0x007f) ? 1 : (c <= 0x07ff ? 2 : 3);
+        } // for
+        return len;
+    } // utfLength
+
+    /***************************************************************************
+     * Write s in writeUTF form at the position of buf.
+     * @param s    the string to write
+     * @param buf  the buffer to write into
+     */
+    private static void putUTF (String s, ByteBuffer buf)
+    {
+        int len = utfLength (s);
+        if (len > 0xffff) throw new IllegalArgumentException ("TupleCodec: string too long");
+        buf.putShort ((short) len);
+        for (int i = 0; i < s.length (); i++) {
+            char c = s.charAt (i);
+            if (c >= 0x0001 && c <= 0x007f) {
+                buf.put ((byte) c);
+            } else if (c <= 0x07ff) {
+                buf.put ((byte) (0xc0 | (c >> 6)));
+                buf.put ((byte) (0x80 | (c & 0x3f)));
+            } else {
+                buf.put ((byte) (0xe0 | (c >> 12)));
+                buf.put ((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buf.put ((byte) (0x80 | (c & 0x3f)));
+            } // if
+        } // for
+    } // putUTF
+
+    /***************************************************************************
+     * Read a modified UTF-8 string of len bytes starting at position pos of buf.
+     * @param buf  the buffer to read from
+     * @param pos  the position of the first byte
+     * @param len  the encoded length in bytes
+     * @return  the decoded string
+     */
+    private static String getUTF (ByteBuffer buf, int pos, int len)
+    {
+        char [] chars = new char [len];
+        int n = 0;
+        for (int end = pos + len; pos < end; ) {
+            int b = buf.get (pos++) & 0xff;
+            if (b < 0x80) {
+                chars [n++] = (char) b;
+            } else if ((b & 0xe0) == 0xc0) {
+                chars [n++] = (char) (((b & 0x1f) << 6) | (buf.get (pos++) & 0x3f));
+            } else {
+                int b2 = buf.get (pos++) & 0x3f, b3 = buf.get (pos++) & 0x3f;
+                chars [n++] = (char) (((b & 0x0f) << 12) | (b2 << 6) | b3);
+            } // if
+        } // for
+        return new String (chars, 0, n);
+    } // getUTF
+
+    /***************************************************************************
+     * The main method measures the bytes allocated per row by encode and decode
+     * (using the HotSpot per-thread allocation counter).
+     * @param args  the command-line arguments (args[0] gives number of rows)
+     */
+    public static void main (String [] args)
+    {
+        int rows = (args.length == 1) ? Integer.valueOf (args [0]) : 1000000;
+        com.sun.management.ThreadMXBean mx =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+        long tid = Thread.currentThread ().getId ();
+
+        Class [][] domains = { { Integer.class, Long.class, Double.class, Short.class, Character.class },
+                               { String.class, Integer.class, Integer.class, String.class, String.class, Integer.class } };
+        Comparable [][] tuples = { { 1977, 12345L, 124.5, (short) 7, 'F' },
+                                   { "Star_Wars", 1977, 124, "sciFi", "Fox", 12345 } };
+
+        for (int d = 0; d < domains.length; d++) {
+            TupleCodec codec = new TupleCodec (domains [d]);
+            ByteBuffer buf   = ByteBuffer.allocate (256);
+            for (int i = 0; i < rows; i++) { buf.clear (); codec.encode (tuples [d], buf); codec.decode (buf, 0); }  // warm up
+
+            long before = mx.getThreadAllocatedBytes (tid);
+            long t0     = System.nanoTime ();
+            for (int i = 0; i < rows; i++) { buf.clear (); codec.encode (tuples [d], buf); }
+            long encNs  = System.nanoTime () - t0;
+            long encB   = mx.getThreadAllocatedBytes (tid) - before;
+
+            before      = mx.getThreadAllocatedBytes (tid);
+            t0          = System.nanoTime ();
+            long sink   = 0;
+            for (int i = 0; i < rows; i++) sink += codec.decode (buf, 0).length;
+            long decNs  = System.nanoTime () - t0;
+            long decB   = mx.getThreadAllocatedBytes (tid) - before;
+
+            out.println (java.util.Arrays.toString (domains [d]) + " (" + sink / rows + " attributes)");
+            out.printf ("  encode: %6.1f bytes/row  %6.1f ns/row%n", encB / (double) rows, encNs / (double) rows);
+            out.printf ("  decode: %6.1f bytes/row  %6.1f ns/row%n", decB / (double) rows, decNs / (double) rows);
+        } // for
+    } // main
+
+} // TupleCodec class
+